@@ -0,0 +1,51 @@
+package app;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/** Input files and helpers shared by the benchmarks, which drive both apps through their batch entry points. */
+final class Fixtures {
+    private static final PrintWriter DISCARD = new PrintWriter(Writer.nullWriter());
+
+    private Fixtures() { }
+
+    /** Write a table "1=record 1 with some typical text" ... and a list "item 1" ... of the given size. */
+    static void write(Path table, Path list, int records) throws IOException {
+        try (BufferedWriter tableOut = Files.newBufferedWriter(table, StandardCharsets.UTF_8);
+             BufferedWriter listOut = Files.newBufferedWriter(list)) {
+            for (int i = 1; i <= records; i++) {
+                tableOut.write(i + "=record " + i + " with some typical text\n");
+                listOut.write("item " + i + "\n");
+            }
+        }
+    }
+
+    /** Run one batch command, failing the benchmark if the app rejects it. @return - true, for the blackhole */
+    static boolean batch(BatchScript.CommandHandler app, String command, String argument) throws Exception {
+        if (!app.execute(command, argument, DISCARD)) throw new IllegalStateException("Unknown command " + command);
+        return true;
+    }
+
+    static boolean table(String command, String argument) throws Exception {
+        return batch(FileTableMaker::executeBatchCommand, command, argument);
+    }
+
+    static boolean list(String command, String argument) throws Exception {
+        return batch(FileListMaker::executeBatchCommand, command, argument);
+    }
+
+    /** Keys 1..records visited in a scattered order. */
+    static int spreadKey(long i, int records) {
+        return (int) ((i * 7919L) % records) + 1;
+    }
+
+    static void delete(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) return;
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
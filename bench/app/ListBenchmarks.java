@@ -0,0 +1,86 @@
+package app;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * FileListMaker add, insert and move, each including the duplicate check, the save/open round trip
+ * and search at 1K, 100K and 10M items. The list is reopened before every iteration, so edits do not
+ * pile up across iterations. Run once per {@code -jvmArgs -Dftm.list.backend=array|tree} to compare backends.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListBenchmarks {
+
+    @State(Scope.Benchmark)
+    public static class Opened {
+        @Param({"1000", "100000", "10000000"})
+        int items;
+        Path dir;
+        Path file;
+        Path saved;
+        long next;
+
+        @Setup(Level.Trial)
+        public void write() throws Exception {
+            dir = Files.createTempDirectory("ftm-bench");
+            file = dir.resolve("list.txt");
+            saved = dir.resolve("saved-list.txt");
+            Fixtures.write(dir.resolve("table.txt"), file, items);
+        }
+
+        @Setup(Level.Iteration)
+        public void open() throws Exception {
+            FileListMaker.reset();
+            Fixtures.list("open", file.toString());
+        }
+
+        @TearDown(Level.Trial)
+        public void clean() throws Exception {
+            FileListMaker.reset();
+            Fixtures.delete(dir);
+        }
+    }
+
+    /** An opened list whose search index is already built, as after the first search of a session. */
+    public static class Searched extends Opened {
+        @Setup(Level.Iteration)
+        public void index() throws Exception {
+            Fixtures.list("find", "item 1");
+        }
+    }
+
+    @Benchmark
+    public boolean add(Opened list) throws Exception {
+        return Fixtures.list("add", "added " + list.next++);
+    }
+
+    @Benchmark
+    public boolean insert(Opened list) throws Exception {
+        return Fixtures.list("insert", "1 inserted " + list.next++);
+    }
+
+    /** Move the first item to the end, which shifts every other item on the array backend. */
+    @Benchmark
+    public boolean move(Opened list) throws Exception {
+        return Fixtures.list("move", "1 " + list.items);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public boolean saveOpen(Opened list) throws Exception {
+        Fixtures.list("save", list.saved.toString());
+        return Fixtures.list("open", list.saved.toString());
+    }
+
+    @Benchmark
+    public boolean find(Searched list) throws Exception {
+        return Fixtures.list("find", "^item " + Fixtures.spreadKey(list.next++, list.items));
+    }
+}
@@ -0,0 +1,111 @@
+package app;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * RecordServer request throughput over loopback. Each benchmark thread is one client with its own
+ * connection, so {@code -t 1,2,4,8} compares client counts; updateWhileViewing pairs an editor with a
+ * client that keeps asking for the last page of the table.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerBenchmarks {
+
+    @State(Scope.Benchmark)
+    public static class Server {
+        @Param({"1000", "100000"})
+        int records;
+        Path dir;
+        RecordServer server;
+        final AtomicInteger clients = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void start() throws Exception {
+            dir = Files.createTempDirectory("ftm-bench");
+            Path table = dir.resolve("table.txt");
+            Fixtures.write(table, dir.resolve("list.txt"), records);
+            StripedRecordStore store = new StripedRecordStore(RecordServer.STRIPES);
+            IntRecordMap<String> loaded = new IntRecordMap<>(records);
+            FileTableMaker.readTable(table, loaded);
+            store.replace(loaded);
+            server = new RecordServer(0, store);
+            Thread acceptor = new Thread(server::serve, "ftm-bench-acceptor");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() throws Exception {
+            server.close();
+            Fixtures.delete(dir);
+        }
+    }
+
+    /** One connection per benchmark thread, each starting at a different key. */
+    @State(Scope.Thread)
+    public static class Client {
+        Socket socket;
+        BufferedReader in;
+        PrintWriter out;
+        long next;
+
+        @Setup(Level.Trial)
+        public void connect(Server server) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), server.server.port());
+            socket.setTcpNoDelay(true);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)));
+            next = server.clients.getAndIncrement() * 1_000_003L;
+        }
+
+        @TearDown(Level.Trial)
+        public void disconnect() throws IOException {
+            socket.close();
+        }
+
+        /** Send one command and read its reply, failing on an error reply. @return - the reply's last line */
+        String request(String command) throws IOException {
+            out.println(command);
+            out.flush();
+            String line;
+            for (line = in.readLine(); !"OK".equals(line); line = in.readLine()) {
+                if (line == null || line.startsWith("ERR")) throw new IOException(command + ": " + line);
+            }
+            return line;
+        }
+    }
+
+    /** Four gets to every update, on scattered keys. */
+    @Benchmark
+    public String getUpdate(Server server, Client client) throws IOException {
+        long i = client.next++;
+        int key = Fixtures.spreadKey(i, server.records);
+        return client.request(i % 5 == 0 ? "update " + key + " served " + i : "get " + key);
+    }
+
+    @Benchmark
+    @Group("updateWhileViewing")
+    @GroupThreads(1)
+    public String editor(Server server, Client client) throws IOException {
+        long i = client.next++;
+        return client.request("update " + Fixtures.spreadKey(i, server.records) + " viewed " + i);
+    }
+
+    @Benchmark
+    @Group("updateWhileViewing")
+    @GroupThreads(1)
+    public String viewer(Client client) throws IOException {
+        return client.request("tail 20");
+    }
+}
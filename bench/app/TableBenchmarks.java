@@ -0,0 +1,92 @@
+package app;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * FileTableMaker load/save, edit+undo, next-free-key allocation and search at 1K, 100K and 10M records.
+ * The 10M tables need a few GB of heap: add {@code -jvmArgs -Xmx8g}, or {@code -p records=1000,100000}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TableBenchmarks {
+
+    /** A table of the given size, loaded afresh for every trial. */
+    @State(Scope.Benchmark)
+    public static class Table {
+        @Param({"1000", "100000", "10000000"})
+        int records;
+        Path dir;
+        Path file;
+        Path saved;
+        long next;
+
+        @Setup(Level.Trial)
+        public void load() throws Exception {
+            dir = Files.createTempDirectory("ftm-bench");
+            file = dir.resolve("table.txt");
+            saved = dir.resolve("saved.txt");
+            Fixtures.write(file, dir.resolve("list.txt"), records);
+            FileTableMaker.reset();
+            Fixtures.table("load", file.toString());
+        }
+
+        @TearDown(Level.Trial)
+        public void clean() throws Exception {
+            FileTableMaker.reset();
+            Fixtures.delete(dir);
+        }
+
+        int nextKey() {
+            return Fixtures.spreadKey(next++, records);
+        }
+    }
+
+    /** A loaded table whose search index is already built, as after the first search of a session. */
+    public static class Searched extends Table {
+        @Setup(Level.Trial)
+        public void index() throws Exception {
+            Fixtures.table("find", "record 1 with");
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public boolean load(Table table) throws Exception {
+        return Fixtures.table("load", table.file.toString());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public boolean save(Table table) throws Exception {
+        return Fixtures.table("save", table.saved.toString());
+    }
+
+    /** One update and its undo; the history holds inverse edits, so neither copies the table. */
+    @Benchmark
+    public boolean editUndo(Table table) throws Exception {
+        long i = table.next;
+        Fixtures.table("update", table.nextKey() + " edited " + i);
+        return Fixtures.table("undo", "");
+    }
+
+    /** Delete a record, then add one, which takes the lowest free key: the one just deleted. */
+    @Benchmark
+    public boolean nextAvailableKey(Table table) throws Exception {
+        long i = table.next;
+        Fixtures.table("delete", String.valueOf(table.nextKey()));
+        return Fixtures.table("add", "refilled " + i);
+    }
+
+    @Benchmark
+    public boolean find(Searched table) throws Exception {
+        return Fixtures.table("find", "record " + table.nextKey() + " with");
+    }
+}
@@ -0,0 +1,148 @@
+package app;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Runs the menus' saves on a background thread so the console returns as soon as a save is requested.
+ * Each save writes a snapshot taken when it was requested. A save requested while another for the same
+ * file is still waiting replaces the waiting one, so saving repeatedly during a long write costs one
+ * more write rather than one per request.
+ * Files are written next to their target, forced to disk as -Dftm.save.fsync says and moved into place
+ * atomically, so a crash or failed write leaves the previous file intact:
+ * "none" skips forcing, "file" (the default) forces the new file before the move and "directory" also
+ * forces the directory afterwards, which makes the move itself durable.
+ */
+class BackgroundWriter {
+    static final String FSYNC = Settings.text("save.fsync", "file").toLowerCase();
+
+    /** Writes a file's new contents to the given temporary path. */
+    interface Output<T> {
+        T write(Path temp) throws IOException;
+    }
+
+    /** One save, run on the writer thread. */
+    interface Save {
+        void run() throws IOException;
+    }
+
+    /** A save waiting for the writer thread, with how many requests it stands for. */
+    private static final class Pending {
+        Save save;
+        Consumer<String> report;
+        Runnable onFailure;
+        final long requested = System.nanoTime();
+        int requests = 1;
+    }
+
+    private final ExecutorService thread;
+    private final Map<String, Pending> pending = new HashMap<>();
+    private int unfinished; // saves queued or running, for awaitIdle()
+
+    BackgroundWriter(String threadName) {
+        thread = Executors.newSingleThreadExecutor(runnable -> {
+            Thread writer = new Thread(runnable, threadName);
+            writer.setDaemon(true);
+            return writer;
+        });
+    }
+
+    /**
+     * Queue a save, or fold it into one still waiting for the same file.
+     * @param file - the file saved, which identifies saves that can be combined
+     * @param report - receives the save's messages and its outcome, on the writer thread
+     * @param onFailure - runs on the writer thread if the save fails, e.g. to mark the data unsaved again
+     */
+    synchronized void submit(String file, Save save, Consumer<String> report, Runnable onFailure) {
+        Pending waiting = pending.get(file);
+        if (waiting == null) {
+            waiting = new Pending();
+            pending.put(file, waiting);
+            unfinished++;
+            thread.execute(() -> write(file));
+        } else {
+            waiting.requests++;
+        }
+        waiting.save = save;
+        waiting.report = report;
+        waiting.onFailure = onFailure;
+    }
+
+    synchronized boolean idle() {
+        return unfinished == 0;
+    }
+
+    /** Block until every save requested so far has finished, e.g. before reading a file back or exiting. */
+    synchronized void awaitIdle() {
+        boolean interrupted = false;
+        while (unfinished > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void write(String file) {
+        Pending job;
+        synchronized (this) {
+            job = pending.remove(file);
+        }
+        try {
+            job.save.run();
+            job.report.accept(String.format("Background save of %s finished in %.0f ms%s.", file,
+                    (System.nanoTime() - job.requested) / 1e6,
+                    job.requests > 1 ? " (" + job.requests + " requests combined)" : ""));
+        } catch (IOException | RuntimeException e) {
+            job.onFailure.run();
+            job.report.accept("Background save of " + file + " failed: " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                unfinished--;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Replace a file's contents: write them to a sibling temporary file, force it to disk as the fsync
+     * setting says and move it over the target in one step.
+     * @return - what the output returned
+     */
+    static <T> T replace(Path target, Output<T> output) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            T result = output.write(temp);
+            if (!FSYNC.equals("none")) force(temp, StandardOpenOption.WRITE);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Path dir = target.toAbsolutePath().getParent();
+            if (FSYNC.equals("directory") && dir != null) {
+                try {
+                    force(dir, StandardOpenOption.READ);
+                } catch (IOException e) {
+                    // some platforms cannot open a directory; the file itself is in place
+                }
+            }
+            return result;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void force(Path path, StandardOpenOption mode) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, mode)) {
+            channel.force(true);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package app;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/**
+ * Runs a non-interactive command script for FileTableMaker or FileListMaker.
+ * Each non-blank line is "command [arguments]"; lines starting with # are comments.
+ * Output is collected in one large buffer and a throughput summary is printed at the end.
+ */
+class BatchScript {
+    interface CommandHandler {
+        /**
+         * Run one command.
+         * @param command - first word of the line, lower case
+         * @param argument - rest of the line with surrounding whitespace removed, possibly empty
+         * @param out - buffered output for messages
+         * @return - false if the command is not recognised
+         */
+        boolean execute(String command, String argument, PrintWriter out) throws Exception;
+    }
+
+    /**
+     * Run the script named after "--batch" on the command line, or stdin when no file (or "-") is given.
+     * @param args - program arguments, args[0] being "--batch"
+     * @param handler - executes each command
+     */
+    static void run(String[] args, CommandHandler handler) {
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16));
+        try (BufferedReader script = args.length < 2 || args[1].equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16)
+                : Files.newBufferedReader(Path.of(args[1]), StandardCharsets.UTF_8)) {
+            run(script, out, handler);
+        } catch (IOException e) {
+            out.println("Error reading script: " + e.getMessage());
+        }
+        out.flush();
+    }
+
+    static void run(BufferedReader script, PrintWriter out, CommandHandler handler) throws IOException {
+        long ops = 0;
+        long errors = 0;
+        long lineNumber = 0;
+        long start = System.nanoTime();
+        String line;
+        while ((line = script.readLine()) != null) {
+            lineNumber++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) continue;
+            int space = trimmed.indexOf(' ');
+            String command = (space < 0 ? trimmed : trimmed.substring(0, space)).toLowerCase();
+            String argument = space < 0 ? "" : trimmed.substring(space + 1).trim();
+            ops++;
+            try {
+                if (!handler.execute(command, argument, out)) {
+                    out.println("Line " + lineNumber + ": unknown command '" + command + "'");
+                    errors++;
+                }
+            } catch (Exception e) {
+                out.println("Line " + lineNumber + ": " + command + " failed: " + e.getMessage());
+                errors++;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.printf("Batch complete: %d ops (%d errors) in %.0f ms, %.0f ops/sec%n",
+                ops, errors, seconds * 1000, seconds > 0 ? ops / seconds : 0.0);
+    }
+
+    /** Parse a numeric argument, reporting which one was bad. */
+    static int intArg(String value, String name) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number: '" + value + "'");
+        }
+    }
+
+    /** Split "first rest" into the two parts; the rest may be empty. */
+    static String[] splitFirst(String argument) {
+        int space = argument.indexOf(' ');
+        return space < 0
+                ? new String[] {argument, ""}
+                : new String[] {argument.substring(0, space), argument.substring(space + 1).trim()};
+    }
+}
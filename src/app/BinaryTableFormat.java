@@ -0,0 +1,210 @@
+package app;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary save format for FileTableMaker records, chosen by saving to a ".ftb" file.
+ * Layout: an 8-byte header ("FTMB", format version, 3 reserved bytes), then blocks of
+ * [record count][payload length][CRC32C of payload][payload], ending with an empty block.
+ * A record in the payload is a zig-zag varint key, a varint byte length and the UTF-8 value,
+ * so values may contain newlines and '='. Any checksum mismatch or truncation fails the load.
+ */
+class BinaryTableFormat {
+    static final String EXTENSION = ".ftb";
+    private static final byte[] MAGIC = {'F', 'T', 'M', 'B'};
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int BLOCK_HEADER_SIZE = 12;
+    private static final int BLOCK_SIZE = 1 << 20;
+
+    static boolean isBinaryName(String filename) {
+        return filename.toLowerCase().endsWith(EXTENSION);
+    }
+
+    /** @return - true if the file starts with the binary format's magic bytes */
+    static boolean isBinaryFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(MAGIC.length);
+            while (head.hasRemaining() && channel.read(head) >= 0) { }
+            return !head.hasRemaining() && head.flip().equals(ByteBuffer.wrap(MAGIC));
+        }
+    }
+
+    /** @return - bytes written */
+    static long write(Path path, IntRecordMap<String> records) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            BlockWriter writer = new BlockWriter(channel);
+            writer.header();
+            if (records.isOffHeap()) {
+                records.forEachUtf8(writer::addUtf8); // copied from the slabs, never decoded
+            } else {
+                records.forEach(writer::add);
+            }
+            writer.finish();
+            return channel.position();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Read every record into the sink in file order.
+     * @return - bytes read
+     */
+    static long read(Path path, MappedRecordLoader.RecordSink sink) throws IOException {
+        byte[][] scratch = {new byte[256]};
+        return readUtf8(path, (key, utf8, offset, length) -> {
+            if (scratch[0].length < length) scratch[0] = new byte[Math.max(length, scratch[0].length * 2)];
+            utf8.get(offset, scratch[0], 0, length);
+            sink.accept(key, new String(scratch[0], 0, length, StandardCharsets.UTF_8));
+        });
+    }
+
+    /**
+     * Read every record into the sink in file order, as the UTF-8 bytes in the block just read.
+     * @return - bytes read
+     */
+    static long readUtf8(Path path, MappedRecordLoader.Utf8Sink sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocateDirect(Math.max(HEADER_SIZE, BLOCK_HEADER_SIZE));
+            readFully(channel, header.limit(HEADER_SIZE), "header");
+            for (byte b : MAGIC) {
+                if (header.get() != b) throw new IOException("Not a binary table file.");
+            }
+            if (header.get() != VERSION) throw new IOException("Unsupported binary table version.");
+            ByteBuffer payload = ByteBuffer.allocateDirect(BLOCK_SIZE);
+            CRC32C crc = new CRC32C();
+            for (long block = 0; ; block++) {
+                long blockStart = channel.position();
+                readFully(channel, header.clear().limit(BLOCK_HEADER_SIZE), "block " + block);
+                int count = header.getInt();
+                int length = header.getInt();
+                int checksum = header.getInt();
+                if (count < 0 || length < 0 || length > channel.size() - channel.position()) {
+                    throw new IOException("Corrupt block header at byte " + blockStart);
+                }
+                if (count == 0 && length == 0) break;
+                if (payload.capacity() < length) payload = ByteBuffer.allocateDirect(length);
+                readFully(channel, payload.clear().limit(length), "block " + block);
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    throw new IOException("Checksum mismatch in block " + block + " at byte " + blockStart);
+                }
+                payload.flip();
+                for (int i = 0; i < count; i++) {
+                    int key = zigZagDecode(readVarint(payload, blockStart));
+                    int valueLength = readVarint(payload, blockStart);
+                    if (valueLength < 0 || valueLength > payload.remaining()) {
+                        throw new IOException("Corrupt record in block " + block + " at byte " + blockStart);
+                    }
+                    sink.accept(key, payload, payload.position(), valueLength);
+                    payload.position(payload.position() + valueLength);
+                }
+                if (payload.hasRemaining()) throw new IOException("Corrupt block " + block + " at byte " + blockStart);
+            }
+            return channel.position();
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, String what) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new IOException("Truncated file while reading " + what + ".");
+        }
+        buffer.flip();
+    }
+
+    private static int readVarint(ByteBuffer buffer, long blockStart) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!buffer.hasRemaining()) break;
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IOException("Corrupt varint in block at byte " + blockStart);
+    }
+
+    private static int zigZagDecode(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    /** Accumulates records into a direct buffer and writes each full block with its checksum. */
+    private static class BlockWriter {
+        private final FileChannel channel;
+        private final ByteBuffer header = ByteBuffer.allocateDirect(BLOCK_HEADER_SIZE);
+        private ByteBuffer payload = ByteBuffer.allocateDirect(BLOCK_SIZE);
+        private final CRC32C crc = new CRC32C();
+        private int count;
+
+        BlockWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void header() throws IOException {
+            ByteBuffer head = ByteBuffer.allocate(HEADER_SIZE).put(MAGIC).put(VERSION);
+            head.position(HEADER_SIZE).flip();
+            writeFully(head);
+        }
+
+        void add(int key, String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            addUtf8(key, ByteBuffer.wrap(bytes), 0, bytes.length);
+        }
+
+        void addUtf8(int key, ByteBuffer utf8, int offset, int length) {
+            int needed = 10 + length;
+            try {
+                if (payload.remaining() < needed) {
+                    if (count > 0) flushBlock();
+                    if (payload.capacity() < needed) payload = ByteBuffer.allocateDirect(needed);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            writeVarint((key << 1) ^ (key >> 31));
+            writeVarint(length);
+            payload.put(payload.position(), utf8, offset, length);
+            payload.position(payload.position() + length);
+            count++;
+        }
+
+        void flushBlock() throws IOException {
+            payload.flip();
+            crc.reset();
+            crc.update(payload);
+            payload.rewind();
+            header.clear().putInt(count).putInt(payload.remaining()).putInt((int) crc.getValue()).flip();
+            writeFully(header);
+            writeFully(payload);
+            payload.clear();
+            count = 0;
+        }
+
+        /** Write the last partial block and the empty block that marks the end of the table. */
+        void finish() throws IOException {
+            if (count > 0) flushBlock();
+            flushBlock();
+        }
+
+        private void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                payload.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            payload.put((byte) value);
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        }
+    }
+}
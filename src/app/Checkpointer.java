@@ -0,0 +1,279 @@
+package app;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Keeps unsaved menu edits in a recovery file so a crash loses at most the last few seconds of work.
+ * Every -Dftm.checkpoint.seconds (default 30; 0 turns checkpoints off), or sooner once
+ * -Dftm.checkpoint.ops edits (default 1000) have been made, a scheduled thread asks the app for what
+ * changed since the previous checkpoint and appends it to the file as one commit. The header ties the
+ * file to the saved file the changes build on (size and modification time), and each commit is
+ * [length][CRC32C][changes] as in {@link RecordJournal}, so a commit torn by a crash is ignored.
+ * The app holds off its edits only while it copies out the changes; encoding and writing happen after.
+ */
+class Checkpointer {
+    static final long INTERVAL_SECONDS = Settings.number("checkpoint.seconds", 30);
+    static final long OPS = Math.max(1, Settings.number("checkpoint.ops", 1000));
+
+    private static final byte[] MAGIC = {'F', 'T', 'M', 'R'};
+
+    /** Encodes one checkpoint's changes; runs on the checkpoint thread without holding up the app. */
+    interface Payload {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /** The app's side: hands over its changes and starts over when they can no longer be appended. */
+    interface Source {
+        /**
+         * Copy out what changed since the last checkpoint and clear the tracking, holding off edits meanwhile.
+         * @return - the changes, or null if nothing changed
+         */
+        Changes take() throws IOException;
+
+        /** The base file changed behind the checkpoints' back: the next {@link #take} must hold everything. */
+        void baseLost();
+    }
+
+    /**
+     * Changes since the last checkpoint.
+     * @param base - saved file the changes build on, or null when they build on an empty table or list
+     * @param restart - the changes build on the base as it is now, so earlier checkpoints are dropped
+     * @param payload - the changes, or null if there are none
+     */
+    record Changes(Path base, long baseSize, long baseModified, boolean restart, Payload payload) {
+        /** Note the base's current size and time, so the checkpoint can tell if it changes later. */
+        static Changes of(Path base, boolean restart, Payload payload) throws IOException {
+            long[] stamp = stamp(base);
+            return new Changes(base, stamp[0], stamp[1], restart, payload);
+        }
+    }
+
+    /**
+     * A recovery file found at startup.
+     * @param base - saved file to read before applying the commits, or null to start empty
+     * @param modified - when the last checkpoint was written
+     * @param commits - each checkpoint's changes, oldest first
+     */
+    record Recovery(Path base, long modified, List<ByteBuffer> commits) { }
+
+    private final Path file;
+    private final Source source;
+    private final Consumer<String> report;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "checkpointer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong edits = new AtomicLong();
+    // the file this session is writing, only touched on the checkpoint thread
+    private boolean started; // a header has been chosen
+    private boolean written; // and the file holds it
+    private Path headerBase;
+    private long[] headerStamp;
+
+    /** @param report - receives checkpoint failures, from the checkpoint thread */
+    Checkpointer(Path file, Source source, Consumer<String> report) {
+        this.file = file;
+        this.source = source;
+        this.report = report;
+    }
+
+    Path file() {
+        return file;
+    }
+
+    void start() {
+        if (INTERVAL_SECONDS > 0) {
+            timer.scheduleWithFixedDelay(this::checkpoint, INTERVAL_SECONDS, INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /** Count an edit, checkpointing early when enough have piled up. */
+    void edited() {
+        if (INTERVAL_SECONDS > 0 && edits.incrementAndGet() % OPS == 0) timer.execute(this::checkpoint);
+    }
+
+    /**
+     * Stop checkpointing.
+     * @param keep - write a last checkpoint and keep the file for the next start; otherwise delete it
+     */
+    void close(boolean keep) {
+        timer.shutdown();
+        try {
+            timer.awaitTermination(1, TimeUnit.HOURS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (keep) {
+            checkpoint();
+        } else {
+            discard();
+        }
+    }
+
+    /** Delete the recovery file, e.g. when the user declines to restore it. */
+    void discard() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            report.accept("Could not delete " + file + ": " + e.getMessage());
+        }
+    }
+
+    /** Write a checkpoint now; runs on the checkpoint thread, or on the caller's when that is not started. */
+    void checkpoint() {
+        edits.set(0);
+        try {
+            Changes changes = source.take();
+            if (changes == null) return;
+            if (!changes.restart() && started && !sameBase(changes)) {
+                source.baseLost();
+                changes = source.take();
+            }
+            write(changes);
+        } catch (IOException | RuntimeException e) {
+            report.accept("Checkpoint failed: " + e.getMessage());
+        }
+    }
+
+    private boolean sameBase(Changes changes) {
+        return changes.baseSize() == headerStamp[0] && changes.baseModified() == headerStamp[1];
+    }
+
+    private void write(Changes changes) throws IOException {
+        byte[] payload = null;
+        if (changes.payload() != null) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            changes.payload().write(new DataOutputStream(bytes));
+            payload = bytes.toByteArray();
+        }
+        if (changes.restart() || !started) {
+            started = true;
+            written = false;
+            headerBase = changes.base();
+            headerStamp = new long[] {changes.baseSize(), changes.baseModified()};
+        }
+        if (payload == null) {
+            if (!written) Files.deleteIfExists(file); // nothing to recover since the base
+        } else if (!written) {
+            writeFresh(payload);
+            written = true;
+        } else if (!Files.exists(file)) { // deleted by hand, taking the earlier checkpoints with it
+            started = false;
+            source.baseLost();
+            Changes everything = source.take();
+            if (everything != null) write(everything);
+        } else {
+            try (FileOutputStream stream = new FileOutputStream(file.toFile(), true);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+                writeCommit(out, payload);
+                out.flush();
+                if (!BackgroundWriter.FSYNC.equals("none")) stream.getChannel().force(true);
+            }
+        }
+    }
+
+    /** Replace the file with a header and a first commit. */
+    private void writeFresh(byte[] payload) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        BackgroundWriter.replace(file, temp -> {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+                out.write(MAGIC);
+                out.writeInt(1);
+                writeText(out, headerBase == null ? "" : headerBase.toString());
+                out.writeLong(headerStamp[0]);
+                out.writeLong(headerStamp[1]);
+                writeCommit(out, payload);
+            }
+            return null;
+        });
+    }
+
+    private static void writeCommit(DataOutputStream out, byte[] payload) throws IOException {
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload);
+    }
+
+    /**
+     * Read the recovery file left by a session that did not finish. A file whose base has changed since,
+     * or that holds no complete checkpoint, is deleted.
+     * @param report - receives why a recovery file was ignored
+     * @return - the checkpoints to restore, or null if there are none
+     */
+    Recovery recovery(Consumer<String> report) throws IOException {
+        if (!Files.exists(file)) return null;
+        byte[] data = Files.readAllBytes(file);
+        ByteBuffer in = ByteBuffer.wrap(data);
+        try {
+            for (byte b : MAGIC) {
+                if (in.get() != b) throw new IllegalStateException("not a recovery file");
+            }
+            if (in.getInt() != 1) throw new IllegalStateException("unknown version");
+            String name = readText(in);
+            Path base = name.isEmpty() ? null : Path.of(name);
+            long[] stamp = stamp(base);
+            if (in.getLong() != stamp[0] || in.getLong() != stamp[1]) {
+                report.accept("Ignored " + file + ": " + base + " has changed since it was written.");
+                discard();
+                return null;
+            }
+            List<ByteBuffer> commits = new ArrayList<>();
+            CRC32C crc = new CRC32C();
+            while (in.remaining() >= 8) {
+                int length = in.getInt();
+                int checksum = in.getInt();
+                if (length < 0 || length > in.remaining()) break;
+                crc.reset();
+                crc.update(data, in.position(), length);
+                if ((int) crc.getValue() != checksum) break;
+                commits.add(in.slice().limit(length));
+                in.position(in.position() + length);
+            }
+            if (commits.isEmpty()) {
+                discard();
+                return null;
+            }
+            return new Recovery(base, Files.getLastModifiedTime(file).toMillis(), commits);
+        } catch (RuntimeException e) {
+            report.accept("Ignored " + file + ": it is damaged.");
+            discard();
+            return null;
+        }
+    }
+
+    /** Write a string as a UTF-8 length-prefixed field; unlike writeUTF it has no 64 KB limit. */
+    static void writeText(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readText(ByteBuffer in) {
+        int length = in.getInt();
+        String text = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return text;
+    }
+
+    /** @return - size and modification time of the base, or -1s when there is none */
+    private static long[] stamp(Path base) throws IOException {
+        if (base == null || !Files.exists(base)) return new long[] {-1, -1};
+        BasicFileAttributes attributes = Files.readAttributes(base, BasicFileAttributes.class);
+        return new long[] {attributes.size(), attributes.lastModifiedTime().toMillis()};
+    }
+}
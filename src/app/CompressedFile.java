@@ -0,0 +1,358 @@
+package app;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Block-compressed container for saved text files and version chunks, written when -Dftm.compress.level
+ * is a Deflater level from 1 to 9 (0, the default, writes plain files) and recognised by its header
+ * whatever the setting, so compressed and plain files load alike. A file counts as compressed only if it
+ * starts with a whole valid header and first block header, so a plain list whose first item happens to
+ * begin with the magic bytes still reads as plain text.
+ * Layout: an 8-byte header ("FTMZ", format version, 3 reserved bytes), then blocks of
+ * [compressed length][original length][CRC32C of the original bytes][zlib data], ending with an empty
+ * block. A block holds about 1 MiB of whole lines and is compressed on its own, so blocks are deflated
+ * on several threads while saving and {@link ParallelLoader} inflates and parses them on several threads.
+ */
+class CompressedFile {
+    static final int LEVEL = (int) Math.max(0, Math.min(9, Settings.number("compress.level", 0)));
+    private static final byte[] MAGIC = {'F', 'T', 'M', 'Z'};
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int BLOCK_HEADER_SIZE = 12;
+    private static final int BLOCK_SIZE = 1 << 20;
+    /** Bytes looked at to recognise the container: its header, the first block header and a zlib header. */
+    private static final int PROBE_SIZE = HEADER_SIZE + BLOCK_HEADER_SIZE + 2;
+
+    /** Where a block's compressed data is and what it should inflate to. */
+    record Block(long position, int compressedLength, int length, int checksum) { }
+
+    /** @return - true if the file starts like a compressed file; see the class comment */
+    static boolean isCompressed(FileChannel channel) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(PROBE_SIZE);
+        while (head.hasRemaining() && channel.read(head, head.position()) >= 0) { }
+        return isContainerStart(head.array(), head.position());
+    }
+
+    /** @return - a stream writing the file compressed when compression is on, plain otherwise */
+    static OutputStream output(Path path) throws IOException {
+        return output(path, LEVEL);
+    }
+
+    /** @return - a stream writing the file compressed at the Deflater level, or plain for level 0 */
+    static OutputStream output(Path path, int level) throws IOException {
+        OutputStream out = Files.newOutputStream(path);
+        return level > 0 ? new BlockOutputStream(new BufferedOutputStream(out), level) : out;
+    }
+
+    /** @return - a stream of the file's contents, inflated if it is compressed */
+    static InputStream input(Path path) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(Files.newInputStream(path));
+        in.mark(PROBE_SIZE);
+        byte[] head = in.readNBytes(PROBE_SIZE);
+        in.reset();
+        return isContainerStart(head, head.length) ? new BlockInputStream(in, path) : in;
+    }
+
+    /**
+     * @param head - the first bytes of a file
+     * @param count - how many of them there are, at most PROBE_SIZE
+     * @return - true if they are the header with a known version and zero reserved bytes, followed by
+     *           the end block or by a block header whose data starts with a zlib header
+     */
+    private static boolean isContainerStart(byte[] head, int count) {
+        if (count < HEADER_SIZE + BLOCK_HEADER_SIZE) return false;
+        if (!Arrays.equals(head, 0, MAGIC.length, MAGIC, 0, MAGIC.length) || head[MAGIC.length] != VERSION) return false;
+        for (int i = MAGIC.length + 1; i < HEADER_SIZE; i++) {
+            if (head[i] != 0) return false;
+        }
+        ByteBuffer block = ByteBuffer.wrap(head, HEADER_SIZE, BLOCK_HEADER_SIZE);
+        int compressedLength = block.getInt();
+        int length = block.getInt();
+        int checksum = block.getInt();
+        if (compressedLength == 0) return length == 0 && checksum == 0; // an empty file
+        if (compressedLength < 2 || length < 0 || count < PROBE_SIZE) return false;
+        int cmf = head[PROBE_SIZE - 2] & 0xFF;
+        int flg = head[PROBE_SIZE - 1] & 0xFF;
+        return (cmf & 0x0F) == Deflater.DEFLATED && ((cmf << 8) | flg) % 31 == 0;
+    }
+
+    /**
+     * Read the block headers of a compressed file, without inflating anything.
+     * @return - the blocks in file order
+     */
+    static List<Block> blocks(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0, "header");
+        if (header.get(MAGIC.length) != VERSION) throw new IOException("Unsupported compressed file version.");
+        List<Block> blocks = new ArrayList<>();
+        long size = channel.size();
+        for (long position = HEADER_SIZE; ; ) {
+            ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+            readFully(channel, blockHeader, position, "block " + blocks.size());
+            int compressedLength = blockHeader.getInt();
+            int length = blockHeader.getInt();
+            int checksum = blockHeader.getInt();
+            long data = position + BLOCK_HEADER_SIZE;
+            if (compressedLength < 0 || length < 0 || compressedLength > size - data) {
+                throw new IOException("Corrupt block header at byte " + position);
+            }
+            if (compressedLength == 0 && length == 0) return blocks;
+            blocks.add(new Block(data, compressedLength, length, checksum));
+            position = data + compressedLength;
+        }
+    }
+
+    /** Read and inflate one block; safe to call from several threads at once. @return - its original bytes */
+    static byte[] inflate(FileChannel channel, Block block) throws IOException {
+        ByteBuffer compressed = ByteBuffer.allocate(block.compressedLength());
+        readFully(channel, compressed, block.position(), "block at byte " + block.position());
+        Inflater inflater = new Inflater();
+        try {
+            return inflate(inflater, compressed.array(), block.compressedLength(), block.length(), block.checksum(),
+                    "block at byte " + block.position());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] inflate(Inflater inflater, byte[] compressed, int compressedLength, int length, int checksum,
+                                  String where) throws IOException {
+        byte[] data = new byte[length];
+        byte[] extra = new byte[1];
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedLength);
+        try {
+            int inflated = 0;
+            while (!inflater.finished()) {
+                int n = inflated < length ? inflater.inflate(data, inflated, length - inflated) : inflater.inflate(extra);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                if (inflated == length && n > 0) break; // more data than the header says
+                inflated += n;
+            }
+            if (!inflater.finished() || inflated != length) throw new IOException("Corrupt compressed " + where);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed " + where, e);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(data, 0, length);
+        if ((int) crc.getValue() != checksum) throw new IOException("Checksum mismatch in compressed " + where);
+        return data;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position, String what) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Truncated file while reading " + what + ".");
+            }
+        }
+        buffer.flip();
+    }
+
+    /** @return - the block as it goes in the file: its header, then the zlib data */
+    private static ByteBuffer deflate(byte[] data, int level) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] framed = new byte[BLOCK_HEADER_SIZE + Math.max(64, data.length / 4)];
+            int size = BLOCK_HEADER_SIZE;
+            while (!deflater.finished()) {
+                if (size == framed.length) framed = Arrays.copyOf(framed, size * 2);
+                size += deflater.deflate(framed, size, framed.length - size);
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(data);
+            ByteBuffer.wrap(framed).putInt(size - BLOCK_HEADER_SIZE).putInt(data.length).putInt((int) crc.getValue());
+            return ByteBuffer.wrap(framed, 0, size);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Buffers the bytes written and cuts them into blocks of whole lines, which are deflated on the
+     * loader's pool a few at a time and written in order.
+     */
+    private static final class BlockOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final int level;
+        private final ArrayDeque<CompletableFuture<ByteBuffer>> pending = new ArrayDeque<>();
+        private byte[] buffer = new byte[1 << 13]; // grows to BLOCK_SIZE, so small files stay cheap
+        private int length;
+        private boolean closed;
+
+        BlockOutputStream(OutputStream out, int level) throws IOException {
+            this.out = out;
+            this.level = level;
+            byte[] head = Arrays.copyOf(MAGIC, HEADER_SIZE);
+            head[MAGIC.length] = VERSION;
+            out.write(head);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int count) throws IOException {
+            Objects.checkFromIndexSize(offset, count, bytes.length);
+            while (count > 0) {
+                if (length == buffer.length) {
+                    if (buffer.length < BLOCK_SIZE) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    else writeBlock(false);
+                }
+                int n = Math.min(count, buffer.length - length);
+                System.arraycopy(bytes, offset, buffer, length, n);
+                length += n;
+                offset += n;
+                count -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush(); // blocks are only cut when full, so flushing does not shrink them
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                if (length > 0) writeBlock(true);
+                while (!pending.isEmpty()) writeOldest();
+                out.write(new byte[BLOCK_HEADER_SIZE]); // the empty block that ends the file
+            } finally {
+                for (CompletableFuture<ByteBuffer> block : pending) block.cancel(false);
+                out.close();
+            }
+        }
+
+        /** Cut the buffer at its last line end, or all of it for the last block, and deflate that. */
+        private void writeBlock(boolean last) throws IOException {
+            int end = last ? length : lastLineEnd();
+            if (end == 0) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2); // a single line longer than the block
+                return;
+            }
+            byte[] block = Arrays.copyOf(buffer, end);
+            System.arraycopy(buffer, end, buffer, 0, length - end);
+            length -= end;
+            if (ParallelLoader.THREADS == 1 || (last && pending.isEmpty())) {
+                write(deflate(block, level)); // e.g. a small file, not worth another thread
+                return;
+            }
+            pending.add(CompletableFuture.supplyAsync(() -> deflate(block, level), ParallelLoader.pool()));
+            while (pending.size() > ParallelLoader.THREADS * 2) writeOldest();
+        }
+
+        private void writeOldest() throws IOException {
+            try {
+                write(pending.poll().join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause) throw cause;
+                throw e;
+            }
+        }
+
+        private void write(ByteBuffer framed) throws IOException {
+            out.write(framed.array(), 0, framed.limit());
+        }
+
+        private int lastLineEnd() {
+            for (int i = length - 1; i >= 0; i--) {
+                if (buffer[i] == '\n') return i + 1;
+            }
+            return 0;
+        }
+    }
+
+    /** Reads a compressed file front to back, one inflated block at a time. */
+    private static final class BlockInputStream extends InputStream {
+        private final DataInputStream in;
+        private final Path path;
+        private final Inflater inflater = new Inflater();
+        private byte[] block = new byte[0];
+        private int position;
+        private long blockStart = HEADER_SIZE;
+        private boolean ended;
+
+        BlockInputStream(InputStream in, Path path) throws IOException {
+            this.in = new DataInputStream(in);
+            this.path = path;
+            byte[] header = new byte[HEADER_SIZE];
+            try {
+                this.in.readFully(header);
+            } catch (EOFException e) {
+                throw new IOException("Truncated file while reading the header of " + path + ".", e);
+            }
+            if (header[MAGIC.length] != VERSION) throw new IOException("Unsupported compressed file version.");
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == block.length && !nextBlock()) return -1;
+            return block[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int count) throws IOException {
+            Objects.checkFromIndexSize(offset, count, bytes.length);
+            if (count == 0) return 0;
+            if (position == block.length && !nextBlock()) return -1;
+            int n = Math.min(count, block.length - position);
+            System.arraycopy(block, position, bytes, offset, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            in.close();
+        }
+
+        /** @return - false at the end of the file */
+        private boolean nextBlock() throws IOException {
+            while (!ended) {
+                int compressedLength, length, checksum;
+                byte[] compressed;
+                try {
+                    compressedLength = in.readInt();
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (compressedLength < 0 || length < 0) throw new IOException("Corrupt block header at byte " + blockStart);
+                    compressed = in.readNBytes(compressedLength);
+                } catch (EOFException e) {
+                    throw new IOException("Truncated file while reading " + path + ".", e);
+                }
+                if (compressed.length < compressedLength) throw new IOException("Truncated file while reading " + path + ".");
+                if (compressedLength == 0 && length == 0) {
+                    ended = true;
+                    return false;
+                }
+                block = inflate(inflater, compressed, compressedLength, length, checksum, "block at byte " + blockStart);
+                position = 0;
+                blockStart += BLOCK_HEADER_SIZE + compressedLength;
+                if (length > 0) return true;
+            }
+            return false;
+        }
+    }
+}
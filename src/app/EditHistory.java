@@ -0,0 +1,102 @@
+package app;
+
+import java.util.ArrayDeque;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * Undo/redo history of inverse edits held within an approximate memory budget. Both sides are array
+ * ring buffers, so dropping an entry when the budget is exceeded is O(1). The redo steps furthest from
+ * the current state go first, so undoing a long way does not cost undo history; then the oldest undo
+ * steps. The newest entry on each side is always kept, even if it alone exceeds the budget, so the last
+ * change can be undone and the last undo redone.
+ */
+class EditHistory<E> {
+    /** An entry with the size it was estimated at when it went in. */
+    private record Sized<E>(E edit, long bytes) { }
+
+    private final ArrayDeque<Sized<E>> undo = new ArrayDeque<>();
+    private final ArrayDeque<Sized<E>> redo = new ArrayDeque<>();
+    private final ToLongFunction<E> sizer;
+    private final long budget;
+    private long redoBytes; // the part of bytes held by redo entries
+    private volatile long bytes; // also read by metrics on other threads
+
+    /**
+     * @param budget - approximate bytes the history may hold
+     * @param sizer - estimates the bytes an entry keeps reachable
+     */
+    EditHistory(long budget, ToLongFunction<E> sizer) {
+        this.budget = budget;
+        this.sizer = sizer;
+    }
+
+    /** Remember the inverse of a change just made; this forgets anything that could be redone. */
+    void record(E inverse) {
+        redo.clear();
+        bytes -= redoBytes;
+        redoBytes = 0;
+        push(undo, inverse);
+    }
+
+    /**
+     * Reverse the latest change.
+     * @param apply - applies an edit and returns its inverse
+     * @return - false if there was nothing to undo
+     */
+    boolean undo(UnaryOperator<E> apply) {
+        if (undo.isEmpty()) return false;
+        Sized<E> entry = undo.pollLast();
+        bytes -= entry.bytes();
+        push(redo, apply.apply(entry.edit()));
+        return true;
+    }
+
+    /** @return - false if there was nothing to redo */
+    boolean redo(UnaryOperator<E> apply) {
+        if (redo.isEmpty()) return false;
+        Sized<E> entry = redo.pollLast();
+        bytes -= entry.bytes();
+        redoBytes -= entry.bytes();
+        push(undo, apply.apply(entry.edit()));
+        return true;
+    }
+
+    void clear() {
+        undo.clear();
+        redo.clear();
+        redoBytes = 0;
+        bytes = 0;
+    }
+
+    int undoSize() {
+        return undo.size();
+    }
+
+    int redoSize() {
+        return redo.size();
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    long budget() {
+        return budget;
+    }
+
+    private void push(ArrayDeque<Sized<E>> entries, E edit) {
+        Sized<E> entry = new Sized<>(edit, sizer.applyAsLong(edit));
+        entries.addLast(entry);
+        bytes += entry.bytes();
+        if (entries == redo) redoBytes += entry.bytes();
+        while (bytes > budget && redo.size() > (entries == redo ? 1 : 0)) {
+            long dropped = redo.pollFirst().bytes();
+            bytes -= dropped;
+            redoBytes -= dropped;
+        }
+        while (bytes > budget && undo.size() > 1) {
+            bytes -= undo.pollFirst().bytes();
+        }
+    }
+}
@@ -1,39 +1,218 @@
 package app;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.nio.file.*;
 import java.util.*;
+import java.util.function.Consumer;
 
 public class FileListMaker
 {
-    private static ArrayList<String> myArrList = new ArrayList<>();
+    private static ItemList myArrList = new ItemList();
     private static Scanner in = new Scanner(System.in);
-    private static boolean listChanged = false;
+    private static volatile boolean listChanged = false; // also set by a failed background save
     private static String currentFileName = "list.txt";
-    private static Stack<ArrayList<String>> undoStack = new Stack<>();
-    private static Stack<ArrayList<String>> redoStack = new Stack<>();
-    private static final int UNDO_STACK_LIMIT = 10;
+    private static final EditHistory<ListEdit> history =
+            new EditHistory<>(Settings.number("list.undoBytes", 64L << 20), ListEdit::estimatedBytes);
+    private static final String VERSION_FOLDER = "versions";
+    private static final VersionStore versionStore = new VersionStore(Path.of(VERSION_FOLDER));
+    private static final VersionCatalog catalog = new VersionCatalog(Path.of("."), Path.of(VERSION_FOLDER));
+    private static final BackgroundWriter saves = new BackgroundWriter("list-saver");
+    private static volatile boolean saveFailed; // the last background save failed
+    private static final Metrics metrics = new Metrics("list");
+    static {
+        metrics.gauge("historyBytes", history::bytes);
+        metrics.gauge("items", () -> myArrList.size());
+        metrics.gauge("dedupBytes", () -> myArrList.savedBytes());
+    }
+    /** Held by edits, and by the checkpoint thread while it takes the edits made since the last checkpoint. */
+    private static final Object checkpointLock = new Object();
+    private static List<ListEdit> changedEdits = new ArrayList<>(); // applied since the last checkpoint, in order
+    private static boolean changedAll;  // a whole-list edit since the last checkpoint
+    private static boolean rebased;     // saved or opened since the last checkpoint
+    private static Path checkpointBase; // saved list the checkpoints build on, null for an empty list
+    private static Checkpointer checkpoints; // null outside the menu
+    private static final byte CHECKPOINT_ADD = 1;
+    private static final byte CHECKPOINT_REMOVE = 2;
+    private static final byte CHECKPOINT_SET = 3;
+    private static final byte CHECKPOINT_MOVE = 4;
+    private static final Checkpointer.Source CHECKPOINT_SOURCE = new Checkpointer.Source() {
+        @Override
+        public Checkpointer.Changes take() throws IOException {
+            while (true) {
+                saves.awaitIdle(); // a save being written becomes the base the changes build on
+                synchronized (checkpointLock) {
+                    if (!saves.idle()) continue;
+                    if (!rebased && !changedAll && changedEdits.isEmpty()) return null;
+                    Checkpointer.Payload payload = null;
+                    if (changedAll) {
+                        // once per whole-list change; the checkpoint starts from an empty list
+                        List<String> items = myArrList.snapshot();
+                        payload = out -> {
+                            for (int i = 0; i < items.size(); i++) writeCheckpointEdit(out, ListEdit.add(i, items.get(i)));
+                        };
+                    } else if (!changedEdits.isEmpty()) {
+                        List<ListEdit> edits = changedEdits; // the edits are immutable, so they are written as they are
+                        changedEdits = new ArrayList<>();
+                        payload = out -> {
+                            for (ListEdit edit : edits) writeCheckpointEdit(out, edit);
+                        };
+                    }
+                    Checkpointer.Changes changes = Checkpointer.Changes.of(checkpointBase, rebased, payload);
+                    changedAll = false;
+                    rebased = false;
+                    return changes;
+                }
+            }
+        }
+
+        @Override
+        public void baseLost() {
+            synchronized (checkpointLock) {
+                changedEverything();
+            }
+        }
+    };
+
+    /** @param operation - what the edit is timed as in the metrics, e.g. "add" */
+    private static void recordEdit(String operation, ListEdit edit) {
+        history.record(applyEdit(operation, edit)); // Keep only the inverse for undo
+        listChanged = true;
+    }
+
+    private static ListEdit applyEdit(String operation, ListEdit edit) {
+        return metrics.time(operation, () -> applyEdit(edit));
+    }
+
+    /** Apply an edit to the list and return the edit that reverses it. */
+    private static ListEdit applyEdit(ListEdit edit) {
+        if (checkpoints == null) return applyToList(edit);
+        ListEdit inverse;
+        synchronized (checkpointLock) {
+            inverse = applyToList(edit);
+            if (edit.kind() == ListEdit.Kind.REPLACE) changedEverything();
+            else if (!changedAll) changedEdits.add(edit);
+        }
+        checkpoints.edited();
+        return inverse;
+    }
+
+    private static ListEdit applyToList(ListEdit edit) {
+        switch (edit.kind()) {
+            case ADD -> {
+                myArrList.add(edit.index(), edit.item());
+                return ListEdit.remove(edit.index());
+            }
+            case REMOVE -> {
+                return ListEdit.add(edit.index(), myArrList.remove(edit.index()));
+            }
+            case SET -> {
+                return ListEdit.set(edit.index(), myArrList.set(edit.index(), edit.item()));
+            }
+            case MOVE -> {
+                myArrList.add(edit.otherIndex(), myArrList.remove(edit.index()));
+                return ListEdit.move(edit.otherIndex(), edit.index());
+            }
+            default -> {
+                ItemList previous = myArrList;
+                myArrList = edit.items();
+                if (previous.dropSearchIndex()) myArrList.buildSearchIndex(); // searched before, so keep it ready
+                return ListEdit.replace(previous);
+            }
+        }
+    }
 
-    private static void pushUndoState() {
-        if (undoStack.size() >= UNDO_STACK_LIMIT) {
-            undoStack.remove(0); // Remove the oldest state
+    /** The list now matches the saved file: later checkpoints hold only what changes from here. */
+    private static void rebase(Path base) {
+        synchronized (checkpointLock) {
+            checkpointBase = base;
+            rebased = true;
+            changedAll = false;
+            changedEdits.clear();
+        }
+    }
+
+    /** The next checkpoint writes the whole list; the caller holds checkpointLock. */
+    private static void changedEverything() {
+        checkpointBase = null;
+        rebased = true;
+        changedAll = true;
+        changedEdits.clear();
+    }
+
+    private static void writeCheckpointEdit(DataOutputStream out, ListEdit edit) throws IOException {
+        switch (edit.kind()) {
+            case ADD -> out.writeByte(CHECKPOINT_ADD);
+            case REMOVE -> out.writeByte(CHECKPOINT_REMOVE);
+            case SET -> out.writeByte(CHECKPOINT_SET);
+            case MOVE -> out.writeByte(CHECKPOINT_MOVE);
+            default -> throw new IllegalArgumentException("A whole-list edit is checkpointed as its items.");
+        }
+        out.writeInt(edit.index());
+        if (edit.kind() == ListEdit.Kind.MOVE) out.writeInt(edit.otherIndex());
+        else if (edit.item() != null) Checkpointer.writeText(out, edit.item());
+    }
+
+    /** Offer to restore the changes that a session which did not exit cleanly left in its recovery file. */
+    private static void offerRecovery() {
+        try {
+            Checkpointer.Recovery recovery = checkpoints.recovery(System.out::println);
+            if (recovery == null) return;
+            String when = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(recovery.modified()));
+            System.out.println("Found unsaved changes from " + when
+                    + (recovery.base() == null ? "." : " to '" + recovery.base() + "'."));
+            if (!SafeInput.getYNConfirm(in, "Restore them?")) {
+                checkpoints.discard();
+                return;
+            }
+            List<String> restored = recovery.base() == null ? new ArrayList<>() : new ArrayList<>(readList(recovery.base()));
+            for (ByteBuffer commit : recovery.commits()) {
+                while (commit.hasRemaining()) {
+                    byte op = commit.get();
+                    int index = commit.getInt();
+                    switch (op) {
+                        case CHECKPOINT_ADD -> restored.add(index, Checkpointer.readText(commit));
+                        case CHECKPOINT_REMOVE -> restored.remove(index);
+                        case CHECKPOINT_SET -> restored.set(index, Checkpointer.readText(commit));
+                        case CHECKPOINT_MOVE -> restored.add(commit.getInt(), restored.remove(index));
+                        default -> throw new IOException("Unknown checkpoint edit " + op + ".");
+                    }
+                }
+            }
+            recordEdit("replace", ListEdit.replace(new ItemList(restored)));
+            if (recovery.base() != null) currentFileName = recovery.base().toString();
+            System.out.println("Restored " + restored.size() + " items. Save them to keep them.");
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Could not restore " + checkpoints.file() + ": " + e.getMessage());
         }
-        undoStack.push(new ArrayList<>(myArrList)); // Deep copy of the current state
-        redoStack.clear(); // Clear redo stack when a new action happens
     }
 
     private static void viewUndoRedoStackStatus() {
-        System.out.println("Undo stack size: " + undoStack.size());
-        System.out.println("Redo stack size: " + redoStack.size());
+        System.out.println("Undo stack size: " + history.undoSize());
+        System.out.println("Redo stack size: " + history.redoSize());
+        System.out.printf("History memory: %,d KB of %,d KB%n", history.bytes() / 1024, history.budget() / 1024);
     }
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            metrics.startDump();
+            BatchScript.run(args, FileListMaker::executeBatchCommand);
+            metrics.stopDump();
+            return;
+        }
+        checkpoints = new Checkpointer(Path.of(VERSION_FOLDER, "recovery", "list.recovery"), CHECKPOINT_SOURCE,
+                System.out::println);
+        offerRecovery();
+        checkpoints.start();
+        metrics.startDump();
+
         boolean running = true;
 
         while (running) {
             String choice = SafeInput.getRegExString(in,
-                    "Enter A (add), D (delete), I (insert), U (update), M (move), V (view), S (save), O (open), C (clear), Q (quit), VL (load version), Z (undo), Y (redo), LF (list files)",
-                    "(?i)A|D|I|U|M|V|S|O|C|Q|VL|Z|Y|LF");
+                    "Enter A (add), D (delete), I (insert), U (update), M (move), V (view), S (save), O (open), C (clear), Q (quit), VL (load version), Z (undo), Y (redo), LF (list files), F (find), ST (stats)",
+                    "(?i)A|D|I|U|M|V|S|O|C|Q|VL|Z|Y|LF|F|ST");
 
             if (choice.equalsIgnoreCase("A")) addItem();
             else if (choice.equalsIgnoreCase("D")) deleteItem();
@@ -48,12 +227,20 @@ public class FileListMaker
             else if (choice.equalsIgnoreCase("Z")) undoLastChange();  // Undo action
             else if (choice.equalsIgnoreCase("Y")) redoLastChange(); // Redo action
             else if (choice.equalsIgnoreCase("LF")) listSavedFiles();
+            else if (choice.equalsIgnoreCase("F")) findItems();
+            else if (choice.equalsIgnoreCase("ST")) metrics.print(System.out::println);
             else if (choice.equalsIgnoreCase("Q")) running = !quitProgram();
             else System.out.println("Invalid option. Try again.");
 
             // Optionally show undo/redo stack sizes
             viewUndoRedoStackStatus();
         }
+        saves.awaitIdle();
+        checkpoints.close(saveFailed && listChanged); // keep them only if the last save failed
+        if (saveFailed && listChanged) {
+            System.out.println("Unsaved changes are kept in " + checkpoints.file() + " for the next start.");
+        }
+        metrics.stopDump();
     }
 
 
@@ -66,19 +253,13 @@ public class FileListMaker
             return;
         }
 
-        pushUndoState(); // Save current state for undo
-
-        ArrayList<String> previewList = new ArrayList<>(myArrList);
-        previewList.add(item);
+        ListEdit add = ListEdit.add(myArrList.size(), item);
         System.out.println("\nPreview of the list with new item:");
-        for (int i = 0; i < previewList.size(); i++) {
-            System.out.println((i + 1) + ". " + previewList.get(i));
-        }
+        printWindow(add.preview(myArrList), myArrList.size());
 
         if (SafeInput.getYNConfirm(in, "\nAdd this item?")) {
-            myArrList.add(item);
+            recordEdit("add", add);
             System.out.println("Item added.");
-            listChanged = true;
         } else {
             System.out.println("Add cancelled.");
         }
@@ -90,24 +271,17 @@ public class FileListMaker
             return;
         }
 
-        pushUndoState(); // Save current state for undo
-
-        viewList();
+        viewListHead();
         int index = SafeInput.getRangedInt(in, "Enter item number to delete: ", 1, myArrList.size()) - 1;
         String item = myArrList.get(index);
 
-        ArrayList<String> previewList = new ArrayList<>(myArrList);
-        previewList.remove(index);
-
+        ListEdit remove = ListEdit.remove(index);
         System.out.println("\nPreview of the list after removing item\"" + item + "\":");
-        for (int i = 0; i < previewList.size(); i++) {
-            System.out.println((i + 1) + ". " + previewList.get(i));
-        }
+        printWindow(remove.preview(myArrList), index);
 
         if (SafeInput.getYNConfirm(in, "\nDelete item '" + item + "'?")) {
-            myArrList.remove(index);
+            recordEdit("delete", remove);
             System.out.println("Item deleted.");
-            listChanged = true;
         } else {
             System.out.println("Deletion cancelled.");
         }
@@ -122,13 +296,11 @@ public class FileListMaker
             return;
         }
 
-        pushUndoState(); // Save current state for undo
-
         int index;
         if (myArrList.isEmpty()) {
             index = 0;
         } else {
-            viewList();
+            viewListHead();
             index = getValidNumber("Enter item number to insert before or after: ", 1, myArrList.size()) - 1;
             String relativeItem = myArrList.get(index);
             String pos = SafeInput.getRegExString(in,
@@ -137,18 +309,13 @@ public class FileListMaker
             index = pos.equalsIgnoreCase("B") ? index + 1 : index;
         }
 
-        ArrayList<String> previewList = new ArrayList<>(myArrList);
-        previewList.add(index, newItem);
-
+        ListEdit insert = ListEdit.add(index, newItem);
         System.out.println("\nPreview of the list after insert:");
-        for (int i = 0; i < previewList.size(); i++) {
-            System.out.println((i + 1) + ". " + previewList.get(i));
-        }
+        printWindow(insert.preview(myArrList), index);
 
         if (SafeInput.getYNConfirm(in, "\nInsert new item?")) {
-            myArrList.add(index, newItem);
+            recordEdit("insert", insert);
             System.out.println("Item inserted.");
-            listChanged = true;
         } else {
             System.out.println("Insertion cancelled.");
         }
@@ -161,9 +328,7 @@ public class FileListMaker
             return;
         }
 
-        pushUndoState(); // Save current state for undo
-
-        viewList();
+        viewListHead();
         int index = getValidNumber("Enter the number of the item to update: ", 1, myArrList.size()) - 1;
         String oldItem = myArrList.get(index);
 
@@ -181,19 +346,14 @@ public class FileListMaker
         }
 
         // Preview change
-        ArrayList<String> previewList = new ArrayList<>(myArrList);
-        previewList.set(index, newItem);
-
+        ListEdit update = ListEdit.set(index, newItem);
         System.out.println("\nPreview of the list after update:");
-        for (int i = 0; i < previewList.size(); i++) {
-            System.out.println((i + 1) + ". " + previewList.get(i));
-        }
+        printWindow(update.preview(myArrList), index);
 
         boolean confirm = SafeInput.getYNConfirm(in, "\nUpdate this item?");
         if (confirm) {
-            myArrList.set(index, newItem);
+            recordEdit("update", update);
             System.out.println("Item updated.");
-            listChanged = true;
         } else {
             System.out.println("Update cancelled.");
         }
@@ -206,19 +366,17 @@ public class FileListMaker
             return;
         }
 
-        pushUndoState(); // Save current state for undo
-
-        viewList();
+        viewListHead();
         int fromIndex = getValidNumber("Enter the number of the item to move: ", 1, myArrList.size()) - 1;
         String itemToMove = myArrList.get(fromIndex);
 
-        // Remove temporarily to simplify index math
-        myArrList.remove(fromIndex);
+        // Number the targets as if the item were already taken out, to simplify index math
+        List<String> remaining = ListEdit.remove(fromIndex).preview(myArrList);
+        System.out.println("\nList without \"" + itemToMove + "\":");
+        PagedOutput.head(remaining.size(), rowsOf(remaining));
 
-        viewList();
-
-        int toIndex = getValidNumber("Enter the number of the item to move ABOVE or BELOW: ", 1, myArrList.size()) - 1;
-        String targetItem = myArrList.get(toIndex);
+        int toIndex = getValidNumber("Enter the number of the item to move ABOVE or BELOW: ", 1, remaining.size()) - 1;
+        String targetItem = remaining.get(toIndex);
 
         String position = SafeInput.getRegExString(in,
                 "Do you want to move \"" + itemToMove + "\" ABOVE or BELOW \"" + targetItem + "\"? (A/B): ",
@@ -233,46 +391,64 @@ public class FileListMaker
             toIndex--;
         }
 
-        // Preview: Create a copy to simulate the new list
-        ArrayList<String> previewList = new ArrayList<>(myArrList);
-        previewList.add(toIndex, itemToMove);
-
+        ListEdit move = ListEdit.move(fromIndex, toIndex);
         System.out.println("\nPreview of the list after move:");
-        for (int i = 0; i < previewList.size(); i++) {
-            System.out.println((i + 1) + ". " + previewList.get(i));
-        }
+        printWindow(move.preview(myArrList), toIndex);
 
         boolean confirm = SafeInput.getYNConfirm(in, "\nConfirm  move?");
         if (confirm) {
-            // Commit the move
-            myArrList.add(toIndex, itemToMove);
+            recordEdit("move", move);
             System.out.println("Move confirmed.");
-            listChanged = true;
         } else {
-            // Cancel: re-insert at original location
-            myArrList.add(fromIndex, itemToMove);
-            System.out.println("Move cancelled. List restored.");
+            System.out.println("Move cancelled. List unchanged.");
+        }
+    }
+
+    private static void findItems() {
+        if (myArrList.isEmpty()) {
+            System.out.println("List is empty.");
+            return;
+        }
+
+        System.out.print("Enter text to find (^word matches words starting with it): ");
+        String query = in.nextLine().trim();
+        if (query.isEmpty()) {
+            System.out.println("Nothing to search for.");
+            return;
+        }
+
+        long start = System.nanoTime();
+        int[] positions = myArrList.find(query);
+        System.out.printf("%d matching items in %.1f ms%n", positions.length, (System.nanoTime() - start) / 1e6);
+        if (positions.length == 0) return;
+
+        PagedOutput.RowPrinter rows = (from, to, out) -> printMatches(positions, from, to, out);
+        if (positions.length <= PagedOutput.PAGE_SIZE) PagedOutput.head(positions.length, rows);
+        else PagedOutput.browse(in, positions.length, rows);
+    }
+
+    private static void printMatches(int[] positions, int from, int to, PrintWriter out)
+    {
+        for (int i = from; i < to; i++)
+        {
+            out.println((positions[i] + 1) + ". " + myArrList.get(positions[i]));
         }
     }
 
     private static void undoLastChange() {
-        if (undoStack.isEmpty()) {
+        if (!history.undo(edit -> applyEdit("undo", edit))) {
             System.out.println("Nothing to undo.");
             return;
         }
-        redoStack.push(new ArrayList<>(myArrList)); // Save the current state for redo
-        myArrList = undoStack.pop();
         listChanged = true;
         System.out.println("Undo successful.");
     }
 
     private static void redoLastChange() {
-        if (redoStack.isEmpty()) {
+        if (!history.redo(edit -> applyEdit("redo", edit))) {
             System.out.println("Nothing to redo.");
             return;
         }
-        undoStack.push(new ArrayList<>(myArrList)); // Push the new state to undo stack
-        myArrList = redoStack.pop();
         listChanged = true;
         System.out.println("Redo successful.");
     }
@@ -286,13 +462,49 @@ public class FileListMaker
         else
         {
             System.out.println("\nCurrent List:");
-            for (int i = 0; i < myArrList.size(); i++)
-            {
-                System.out.println((i + 1) + ". " + myArrList.get(i));
-            }
+            if (myArrList.size() <= PagedOutput.PAGE_SIZE) PagedOutput.head(myArrList.size(), FileListMaker::printItems);
+            else PagedOutput.browse(in, myArrList.size(), FileListMaker::printItems);
         }
     }
 
+    /** Shown before asking for an item number; only the first page, the V command pages through the rest. */
+    private static void viewListHead()
+    {
+        if (myArrList.isEmpty())
+        {
+            System.out.println("List is empty.");
+        }
+        else
+        {
+            System.out.println("\nCurrent List (V to page through all " + myArrList.size() + " items):");
+            PagedOutput.head(myArrList.size(), FileListMaker::printItems);
+        }
+    }
+
+    private static void printItems(int from, int to, PrintWriter out)
+    {
+        for (int i = from; i < to; i++)
+        {
+            out.println((i + 1) + ". " + myArrList.get(i));
+        }
+    }
+
+    /** Print the page of a preview list around the changed position. */
+    private static void printWindow(List<String> list, int index)
+    {
+        PagedOutput.around(list.size(), index, rowsOf(list));
+    }
+
+    private static PagedOutput.RowPrinter rowsOf(List<String> list)
+    {
+        return (from, to, out) -> {
+            for (int i = from; i < to; i++) {
+                out.println((i + 1) + ". " + list.get(i));
+            }
+        };
+    }
+
+    /** Save a copy of the list on the background writer; its outcome is printed when the write finishes. */
     private static void saveListToFile() {
         if (currentFileName == null || currentFileName.isEmpty()) {
             currentFileName = getFileName();
@@ -302,132 +514,188 @@ public class FileListMaker
             }
         }
 
-        versionCurrentFile(); // <--- ADD THIS LINE BEFORE OVERWRITING
-
-        try (PrintWriter writer = new PrintWriter(currentFileName)) {
-            for (String item : myArrList) {
-                writer.println(item);
+        String fileName = currentFileName;
+        List<String> items = myArrList.snapshot();
+        listChanged = false; // before submitting, so a failed write marks the list unsaved again
+        saveFailed = false;
+        rebase(Path.of(fileName));
+        saves.submit(fileName, () -> saveList(fileName, items, System.out::println), System.out::println, () -> {
+            listChanged = true;
+            saveFailed = true;
+            synchronized (checkpointLock) {
+                changedEverything(); // the file does not hold these items
             }
-            listChanged = false;
-            System.out.println("List saved to '" + currentFileName + "'");
+        });
+        System.out.println("Saving list to '" + fileName + "' in the background.");
+    }
+
+    /** Version the file's current contents, then write the items over it. */
+    private static void saveList(String fileName, List<String> items, Consumer<String> report) throws IOException {
+        try {
+            String versionedName = versionFile(fileName); // before overwriting
+            if (versionedName != null) report.accept("Backup saved as: " + versionedName);
         } catch (IOException e) {
-            System.out.println("Error saving list: " + e.getMessage());
+            report.accept("Failed to create version backup: " + e.getMessage());
         }
+        writeList(fileName, items, report);
+        report.accept("List saved to '" + fileName + "'");
     }
 
+    private static void writeList(String fileName, List<String> items, Consumer<String> report) throws IOException {
+        try (Metrics.Sample sample = metrics.time("save")) {
+            sample.bytes(BackgroundWriter.replace(Path.of(fileName), temp -> {
+                try (PrintWriter writer = new PrintWriter(new BufferedWriter(
+                        new OutputStreamWriter(CompressedFile.output(temp))))) {
+                    for (String item : items) {
+                        writer.println(item);
+                    }
+                    if (writer.checkError()) throw new IOException("Write to " + temp + " failed.");
+                }
+                return Files.size(temp);
+            }));
+        }
+        try {
+            catalog.saved(Path.of(fileName), items.size());
+        } catch (IOException e) {
+            report.accept("Failed to update the version catalog: " + e.getMessage());
+        }
+    }
 
-    private static void versionCurrentFile() {
-        if (currentFileName == null) return;
-
-        File original = new File(currentFileName);
-        if (!original.exists()) return;
-
-        String baseName = currentFileName.replace(".txt", "");
-        String timestamp = new java.text.SimpleDateFormat("yyyyMMdd_HHmmss").format(new java.util.Date());
-        String versionedName = baseName + "_v" + timestamp + ".txt";
+    /**
+     * Store a file in the version store before it is overwritten
+     * @return - description of the stored version, or null when there is no file to back up
+     */
+    private static String versionFile(String fileName) throws IOException {
+        File original = new File(fileName);
+        if (!original.exists()) return null;
 
-        File versionedFile = new File(versionedName);
+        String baseName = fileName.replace(".txt", "");
 
-        try {
-            Files.copy(original.toPath(), versionedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            System.out.println("Backup saved as: " + versionedName);
-        } catch (IOException e) {
-            System.out.println("Failed to create version backup: " + e.getMessage());
+        Files.createDirectories(Path.of(VERSION_FOLDER));
+        Path manifest = VersionStore.newManifestPath(Path.of(VERSION_FOLDER), baseName + "_v", ".txt");
+        try (Metrics.Sample sample = metrics.time("version")) {
+            VersionStore.Stored stored = versionStore.store(original.toPath(), manifest);
+            catalog.versioned(original.toPath(), manifest, stored.bytes());
+            sample.bytes(stored.newBytes());
+            return stored.describe();
         }
     }
 
-    private static File[] listVersionsForCurrentFile() {
+    /** @return - versions of the current list from the catalog, latest first, or null if there are none */
+    private static List<VersionCatalog.Entry> listVersionsForCurrentFile() {
     if (currentFileName == null) {
         System.out.println("No list is currently loaded.");
         return null;
     }
+    saves.awaitIdle(); // so a save still being written shows up
+
+    // Older full-copy versions sit next to the list; newer ones are manifests in the version store
+    List<VersionCatalog.Entry> versions;
+    try {
+        versions = catalog.versionsOf(currentFileName);
+    } catch (IOException e) {
+        System.out.println("Failed to read the version catalog: " + e.getMessage());
+        return null;
+    }
 
-    String baseName = currentFileName.replace(".txt", "");
-    File dir = new File(".");
-    File[] versions = dir.listFiles((d, name) -> name.startsWith(baseName + "_v") && name.endsWith(".txt"));
-
-    if (versions == null || versions.length == 0) {
+    if (versions.isEmpty()) {
         System.out.println("No versions found for '" + currentFileName + "'");
         return null;
     }
-
-    Arrays.sort(versions, Comparator.comparing(File::getName).reversed()); // Show latest first
     return versions;
     }
 
     private static void loadVersionedFile() {
-        File[] versions = listVersionsForCurrentFile();
+        List<VersionCatalog.Entry> versions = listVersionsForCurrentFile();
         if (versions == null) return;
 
         System.out.println("\nAvailable versions:");
-        for (int i = 0; i < versions.length; i++) {
-            System.out.printf("%d. %s\n", i + 1, versions[i].getName());
+        for (int i = 0; i < versions.size(); i++) {
+            System.out.printf("%d. %s\n", i + 1, versions.get(i).describe("items"));
         }
 
-        pushUndoState();
-
-        int choice = getValidNumber("Enter the number of the version to load: ", 1, versions.length);
-        File selectedFile = versions[choice - 1];
-
-        try (Scanner fileIn = new Scanner(selectedFile)) {
-            ArrayList<String> tempList = new ArrayList<>();
-            while (fileIn.hasNextLine()) {
-                tempList.add(fileIn.nextLine().trim());
-            }
+        int choice = getValidNumber("Enter the number of the version to load: ", 1, versions.size());
+        Path selectedPath = Path.of(versions.get(choice - 1).name());
+        try {
+            ItemList tempList = VersionStore.isManifest(selectedPath) ? readVersion(selectedPath) : readList(selectedPath);
 
             System.out.println("\nPreview of version:");
-            for (int i = 0; i < tempList.size(); i++) {
-                System.out.println((i + 1) + ". " + tempList.get(i));
-            }
+            printWindow(tempList, 0);
 
             if (SafeInput.getYNConfirm(in, "\nReplace current list with this version?")) {
-                myArrList = tempList;
-                listChanged = true;
-                System.out.println("List restored from version: " + selectedFile.getName());
+                recordEdit("replace", ListEdit.replace(tempList));
+                System.out.println("List restored from version: " + VersionStore.displayName(selectedPath));
             } else {
                 System.out.println("Restore cancelled.");
             }
 
-        } catch (IOException e) {
+        } catch (IOException | UncheckedIOException e) {
             System.out.println("Error reading version file: " + e.getMessage());
         }
     }
 
+    /**
+     * Read a saved list, one trimmed item per line; large files are parsed on several threads. A platform
+     * charset the file cannot be cut into chunks in, such as UTF-16, is read line by line instead.
+     */
+    static ItemList readList(Path path) throws IOException {
+        try (Metrics.Sample sample = metrics.time("load")) {
+            ItemList list = new ItemList();
+            Charset charset = Charset.defaultCharset();
+            if (ParallelLoader.isAsciiCompatible(charset)) {
+                sample.bytes(ParallelLoader.load(path, chunk -> ParallelLoader.trimmedLines(chunk, charset), list::addAll));
+                return list;
+            }
+            try (Scanner lines = new Scanner(CompressedFile.input(path), charset)) {
+                while (lines.hasNextLine()) list.add(lines.nextLine().trim());
+                if (lines.ioException() != null) throw lines.ioException();
+            }
+            sample.bytes(Files.size(path));
+            return list;
+        }
+    }
+
+    private static ItemList readVersion(Path manifest) throws IOException {
+        ItemList list = new ItemList();
+        try (Metrics.Sample sample = metrics.time("load");
+             BufferedReader reader = new BufferedReader(new InputStreamReader(versionStore.open(manifest)))) {
+            String line;
+            while ((line = reader.readLine()) != null) list.add(line.trim());
+            sample.bytes(VersionStore.size(manifest));
+        }
+        return list;
+    }
+
     private static void openListFromFile() {
         if (!promptToSaveIfNeeded()) {
             System.out.println("Operation cancelled.");
             return;
         }
 
-        File dir = new File(".");
-        File[] files = dir.listFiles((d, name) -> name.toLowerCase().endsWith(".txt"));
+        List<VersionCatalog.Entry> files = savedLists();
 
-        if (files == null || files.length == 0) {
+        if (files.isEmpty()) {
             System.out.println("No saved lists found.");
             return;
         }
 
         System.out.println("\nAvailable list files:");
-        for (int i = 0; i < files.length; i++) {
-            System.out.printf("%d. %s\n", i + 1, files[i].getName());
+        for (int i = 0; i < files.size(); i++) {
+            System.out.printf("%d. %s\n", i + 1, files.get(i).describe("items"));
         }
-        int choice = getValidNumber("Enter the number of the file to load: ", 1, files.length);
-        File selectedFile = files[choice - 1];
+        int choice = getValidNumber("Enter the number of the file to load: ", 1, files.size());
+        File selectedFile = new File(files.get(choice - 1).name());
         currentFileName = selectedFile.getName();
 
-        try (Scanner fileIn = new Scanner(selectedFile)) {
-            ArrayList<String> tempList = new ArrayList<>();
-            while (fileIn.hasNextLine()) {
-                tempList.add(fileIn.nextLine().trim());
-            }
+        try {
+            ItemList tempList = readList(selectedFile.toPath());
 
             System.out.println("\nPreview of loaded list:");
-            for (int i = 0; i < tempList.size(); i++) {
-                System.out.println((i + 1) + ". " + tempList.get(i));
-            }
+            printWindow(tempList, 0);
 
             if (SafeInput.getYNConfirm(in, "\nLoad this list?")) {
-                myArrList = tempList;
+                recordEdit("replace", ListEdit.replace(tempList));
+                rebase(selectedFile.toPath());
                 listChanged = false;
                 System.out.println("List loaded successfully from '" + currentFileName + "'.");
             } else {
@@ -441,19 +709,33 @@ public class FileListMaker
 
     private static void listSavedFiles()
     {
-        File dir = new File(".");
-        File[] files = dir.listFiles((d, name) -> name.toLowerCase().endsWith(".txt"));
+        List<VersionCatalog.Entry> files = savedLists();
 
-        if (files == null || files.length == 0) {
+        if (files.isEmpty()) {
             System.out.println("No saved lists found.");
         } else {
             System.out.println("Saved lists:");
-            for (File file : files) {
-                System.out.println("- " + file.getName());
+            for (VersionCatalog.Entry file : files) {
+                System.out.println("- " + file.describe("items"));
             }
         }
     }
 
+    /** The .txt files in the working directory, from the catalog. */
+    private static List<VersionCatalog.Entry> savedLists()
+    {
+        saves.awaitIdle(); // so a save still being written shows up, and is read back whole
+        List<VersionCatalog.Entry> lists = new ArrayList<>();
+        try {
+            for (VersionCatalog.Entry file : catalog.savedFiles()) {
+                if (file.name().toLowerCase().endsWith(".txt")) lists.add(file);
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to read the version catalog: " + e.getMessage());
+        }
+        return lists;
+    }
+
     private static void clearList() {
         if (myArrList.isEmpty()) {
             System.out.println("List is already empty.");
@@ -465,15 +747,12 @@ public class FileListMaker
             return;
         }
 
-        pushUndoState(); // Save current state for undo
-
         System.out.println("\nCurrent list:");
-        viewList();
+        viewListHead();
 
         if (SafeInput.getYNConfirm(in, "\nAre you sure you want to clear the entire list? This cannot be undone.")) {
-            myArrList.clear();
+            recordEdit("clear", ListEdit.replace(new ItemList()));
             System.out.println("List cleared.");
-            listChanged = true;
         } else {
             System.out.println("Clear operation cancelled.");
         }
@@ -495,7 +774,8 @@ public class FileListMaker
         System.out.println("\nYou have unsaved changes.");
         if (SafeInput.getYNConfirm(in, "Would you like to save your list first?")) {
             saveListToFile();
-            return !listChanged;
+            saves.awaitIdle(); // the caller replaces or drops the list next, so the save must have landed
+            return !saveFailed;
         }
 
         return SafeInput.getYNConfirm(in, "Are you sure you don't want to save?");
@@ -536,6 +816,97 @@ public class FileListMaker
         return name;
     }
 
+    /** Batch counterpart of the menu: same operations, no previews or confirmations. */
+    static boolean executeBatchCommand(String command, String argument, PrintWriter out) throws IOException {
+        switch (command) {
+            case "add" -> {
+                requireNewItem(argument);
+                recordEdit("add", ListEdit.add(myArrList.size(), argument));
+            }
+            case "insert" -> {
+                String[] parts = BatchScript.splitFirst(argument);
+                int index = position(parts[0], myArrList.size() + 1);
+                requireNewItem(parts[1]);
+                recordEdit("insert", ListEdit.add(index, parts[1]));
+            }
+            case "update" -> {
+                String[] parts = BatchScript.splitFirst(argument);
+                int index = position(parts[0], myArrList.size());
+                if (parts[1].isEmpty()) throw new IllegalArgumentException("New item cannot be empty.");
+                requireNewItem(parts[1]);
+                recordEdit("update", ListEdit.set(index, parts[1]));
+            }
+            case "delete" -> recordEdit("delete", ListEdit.remove(position(argument, myArrList.size())));
+            case "move" -> {
+                String[] parts = BatchScript.splitFirst(argument);
+                int from = position(parts[0], myArrList.size());
+                int to = position(parts[1], myArrList.size());
+                recordEdit("move", ListEdit.move(from, to));
+            }
+            case "clear" -> recordEdit("clear", ListEdit.replace(new ItemList()));
+            case "save" -> {
+                if (!argument.isEmpty()) currentFileName = ensureTxtExtension(argument);
+                saveList(currentFileName, myArrList, out::println);
+                listChanged = false;
+                return true;
+            }
+            case "open" -> {
+                recordEdit("replace", ListEdit.replace(readList(Path.of(argument))));
+                currentFileName = argument;
+                listChanged = false;
+                out.println("List loaded from '" + argument + "' (" + myArrList.size() + " items)");
+                return true;
+            }
+            case "undo" -> {
+                if (!history.undo(edit -> applyEdit("undo", edit))) throw new IllegalStateException("Nothing to undo.");
+            }
+            case "redo" -> {
+                if (!history.redo(edit -> applyEdit("redo", edit))) throw new IllegalStateException("Nothing to redo.");
+            }
+            case "view", "head", "tail", "range" -> {
+                PagedOutput.batchView(command, argument, myArrList.size(), FileListMaker::printItems, out);
+                return true;
+            }
+            case "stats" -> {
+                metrics.print(out::println);
+                return true;
+            }
+            case "find" -> {
+                if (argument.isEmpty()) throw new IllegalArgumentException("find needs some text.");
+                int[] positions = myArrList.find(argument);
+                printMatches(positions, 0, positions.length, out);
+                out.println(positions.length + " matching items");
+                return true;
+            }
+            default -> {
+                return false;
+            }
+        }
+        listChanged = true;
+        return true;
+    }
+
+    /** Forget the list, history and file name, as if the program had just started. */
+    static void reset() {
+        myArrList = new ItemList();
+        history.clear();
+        listChanged = false;
+        currentFileName = "list.txt";
+    }
+
+    private static void requireNewItem(String item) {
+        if (myArrList.contains(item)) throw new IllegalArgumentException("Item \"" + item + "\" already exists.");
+    }
+
+    /** Convert a 1-based position argument to an index, checking it against 1..max. */
+    private static int position(String argument, int max) {
+        int number = BatchScript.intArg(argument, "position");
+        if (number < 1 || number > max) {
+            throw new IllegalArgumentException("Position " + number + " is outside 1-" + max + ".");
+        }
+        return number - 1;
+    }
+
     private static String ensureTxtExtension(String name) {
         return name.toLowerCase().endsWith(".txt") ? name : name + ".txt";
     }
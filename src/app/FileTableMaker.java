@@ -1,23 +1,148 @@
 package app;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.function.Consumer;
 
 public class FileTableMaker {
     private static final Scanner in = new Scanner(System.in);
-    private static Map<Integer, String> recordMap = new LinkedHashMap<>();
-    private static Stack<HashMap<Integer, String>> undoStack = new Stack<>();
-    private static Stack<HashMap<Integer, String>> redoStack = new Stack<>();
-    private static boolean recordsChanged = false;
+    /** Keep values as UTF-8 outside the heap, for tables too large to hold as Strings; see {@link TextSlabs}. */
+    static final boolean OFF_HEAP = Settings.flag("table.offHeap", false);
+    /** Keep equal values once, for tables where the same values repeat; see {@link ValueStore} and {@link SlabValueStore}. */
+    static final boolean DEDUP = Settings.flag("table.dedup", false);
+    private static IntRecordMap<String> recordMap = newRecords();
+    private static final EditHistory<RecordEdit> history = new EditHistory<>(Long.MAX_VALUE, RecordEdit::estimatedBytes);
+    private static volatile boolean recordsChanged = false; // also set by a failed background save
     private static String currentFileName = null;
-    private static final String VERSION_FOLDER = "versions";
+    static final String VERSION_FOLDER = "versions";
+    private static final VersionStore versionStore = new VersionStore(Path.of(VERSION_FOLDER));
+    private static final VersionCatalog catalog = new VersionCatalog(Path.of("."), Path.of(VERSION_FOLDER));
+    private static final boolean JOURNAL_MODE = Settings.flag("journal", false);
+    private static final long JOURNAL_COMPACT_BYTES = Settings.number("journal.compactBytes", 64L << 20);
+    private static final List<RecordEdit> unsavedEdits = new ArrayList<>();
+    private static volatile boolean unsavedReplace = false;
+    private static final BackgroundWriter saves = new BackgroundWriter("table-saver");
+    private static final Metrics metrics = new Metrics("table");
+    static {
+        metrics.gauge("historyBytes", history::bytes);
+        metrics.gauge("records", () -> recordMap.size());
+        metrics.gauge("offHeapBytes", () -> recordMap.offHeapBytes());
+        metrics.gauge("dedupBytes", () -> recordMap.dedupSavedBytes());
+    }
+    /**
+     * Held by every write to recordMap, including snapshot(), and by the checkpoint thread while it copies
+     * out the changes tracked below. Edits go through {@link #applyEdit(RecordEdit)}, the one place that
+     * changes the records, which asserts the lock is held. Reads on the menu thread need no lock: the
+     * checkpoint thread only reads the records too.
+     */
+    private static final Object checkpointLock = new Object();
+    private static final Set<Integer> changedKeys = new HashSet<>(); // since the last checkpoint
+    private static boolean changedAll;  // a whole-table edit since the last checkpoint
+    private static boolean rebased;     // saved or loaded since the last checkpoint
+    private static Path checkpointBase; // saved file the checkpoints build on, null for an empty table
+    private static Checkpointer checkpoints; // null outside the menu
+    private static final byte CHECKPOINT_PUT = 1;
+    private static final byte CHECKPOINT_REMOVE = 2;
+    /** Text index for Search Records; null until the first search, then kept in step with every edit. */
+    private static SearchIndex searchIndex;
+    private static final SearchIndex.Source RECORD_TEXT = new SearchIndex.Source() {
+        @Override
+        public void forEach(IntRecordMap.EntryConsumer<String> action) {
+            recordMap.forEach(action);
+        }
+
+        @Override
+        public String text(int key) {
+            return recordMap.get(key);
+        }
+    };
+    private static final Checkpointer.Source CHECKPOINT_SOURCE = new Checkpointer.Source() {
+        @Override
+        public Checkpointer.Changes take() throws IOException {
+            while (true) {
+                saves.awaitIdle(); // a save being written becomes the base the changes build on
+                synchronized (checkpointLock) {
+                    if (!saves.idle()) continue;
+                    if (!rebased && !changedAll && changedKeys.isEmpty()) return null;
+                    Checkpointer.Payload payload = null;
+                    if (changedAll) {
+                        IntRecordMap<String> image = recordMap.snapshot();
+                        payload = out -> {
+                            try {
+                                image.forEach((key, value) -> {
+                                    try {
+                                        writeCheckpointPut(out, key, value);
+                                    } catch (IOException e) {
+                                        throw new UncheckedIOException(e);
+                                    }
+                                });
+                            } catch (UncheckedIOException e) {
+                                throw e.getCause();
+                            }
+                        };
+                    } else if (!changedKeys.isEmpty()) {
+                        int[] keys = new int[changedKeys.size()];
+                        String[] values = new String[keys.length]; // null for a removed record
+                        int i = 0;
+                        for (int key : changedKeys) {
+                            keys[i] = key;
+                            values[i++] = recordMap.get(key);
+                        }
+                        payload = out -> {
+                            for (int k = 0; k < keys.length; k++) {
+                                if (values[k] != null) {
+                                    writeCheckpointPut(out, keys[k], values[k]);
+                                } else {
+                                    out.writeByte(CHECKPOINT_REMOVE);
+                                    out.writeInt(keys[k]);
+                                }
+                            }
+                        };
+                    }
+                    Checkpointer.Changes changes = Checkpointer.Changes.of(checkpointBase, rebased, payload);
+                    changedKeys.clear();
+                    changedAll = false;
+                    rebased = false;
+                    return changes;
+                }
+            }
+        }
+
+        @Override
+        public void baseLost() {
+            synchronized (checkpointLock) {
+                changedEverything();
+            }
+        }
+    };
 
     public static void main(String[] args) {
         File versionDir = new File(VERSION_FOLDER);
         if (!versionDir.exists()) versionDir.mkdir();
 
+        if (args.length > 0 && args[0].equals("--batch")) {
+            metrics.startDump();
+            BatchScript.run(args, FileTableMaker::executeBatchCommand);
+            RecordJournal.awaitCompaction();
+            metrics.stopDump();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--server")) {
+            RecordServer.run(args);
+            return;
+        }
+        trackCheckpoints(Path.of(VERSION_FOLDER, "recovery", "table.recovery"), System.out::println);
+        offerRecovery();
+        checkpoints.start();
+        metrics.startDump();
+
         while (true) {
             System.out.println("\n--- FileTableMaker ---");
             System.out.println("1. View Records");
@@ -31,9 +156,11 @@ public class FileTableMaker {
             System.out.println("9. List Saved Files");
             System.out.println("10. Undo");
             System.out.println("11. Redo");
-            System.out.println("12. Exit");
+            System.out.println("12. Search Records");
+            System.out.println("13. Show Stats");
+            System.out.println("14. Exit");
 
-            int choice = getValidNumber("Enter choice: ", 1, 12);
+            int choice = getValidNumber("Enter choice: ", 1, 14);
             switch (choice) {
                 case 1 -> viewRecords();
                 case 2 -> addRecord();
@@ -46,10 +173,18 @@ public class FileTableMaker {
                 case 9 -> listSavedFiles();
                 case 10 -> undo();
                 case 11 -> redo();
-                case 12 -> {
-                    if (recordsChanged && getYNConfirm("Unsaved changes exist. Save before exiting?")) {
-                        saveRecords();
+                case 12 -> searchRecords();
+                case 13 -> metrics.print(System.out::println);
+                case 14 -> {
+                    boolean save = recordsChanged && getYNConfirm("Unsaved changes exist. Save before exiting?");
+                    if (save) saveRecords();
+                    saves.awaitIdle();
+                    checkpoints.close(save && recordsChanged); // keep them only if the save failed
+                    if (save && recordsChanged) {
+                        System.out.println("Unsaved changes are kept in " + checkpoints.file() + " for the next start.");
                     }
+                    RecordJournal.awaitCompaction();
+                    metrics.stopDump();
                     System.out.println("Exiting.");
                     return;
                 }
@@ -63,16 +198,56 @@ public class FileTableMaker {
             return;
         }
         System.out.println("--- Records ---");
-        recordMap.forEach((key, value) -> System.out.println(key + ": " + value));
+        if (recordMap.size() <= PagedOutput.PAGE_SIZE) PagedOutput.head(recordMap.size(), FileTableMaker::printRecords);
+        else PagedOutput.browse(in, recordMap.size(), FileTableMaker::printRecords);
+    }
+
+    /** Shown before asking for a key; only the first page, View Records pages through the rest. */
+    private static void viewRecordsHead() {
+        System.out.println("--- Records (first " + Math.min(recordMap.size(), PagedOutput.PAGE_SIZE)
+                + " of " + recordMap.size() + ", use View Records to page) ---");
+        PagedOutput.head(recordMap.size(), FileTableMaker::printRecords);
+    }
+
+    private static void printRecords(int from, int to, PrintWriter out) {
+        recordMap.forEachInRange(from, to - from, (key, value) -> out.println(key + ": " + value));
+    }
+
+    private static void searchRecords() {
+        if (recordMap.isEmpty()) {
+            System.out.println("No records to search.");
+            return;
+        }
+        System.out.print("Enter text to find (^word matches words starting with it): ");
+        String query = in.nextLine().trim();
+        if (query.isEmpty()) {
+            System.out.println("Nothing to search for.");
+            return;
+        }
+        long start = System.nanoTime();
+        int[] keys = findRecords(query);
+        System.out.printf("%d matching records in %.1f ms%n", keys.length, (System.nanoTime() - start) / 1e6);
+        if (keys.length == 0) return;
+        PagedOutput.RowPrinter rows = (from, to, out) -> printMatches(keys, from, to, out);
+        if (keys.length <= PagedOutput.PAGE_SIZE) PagedOutput.head(keys.length, rows);
+        else PagedOutput.browse(in, keys.length, rows);
+    }
+
+    /** @return - keys of the records matching the query, ascending; the first search builds the index */
+    private static int[] findRecords(String query) {
+        if (searchIndex == null) searchIndex = new SearchIndex(RECORD_TEXT);
+        return searchIndex.find(query);
+    }
+
+    private static void printMatches(int[] keys, int from, int to, PrintWriter out) {
+        for (int i = from; i < to; i++) out.println(keys[i] + ": " + recordMap.get(keys[i]));
     }
 
     private static void addRecord() {
         System.out.print("Enter record content: ");
         String content = in.nextLine().trim();
         int key = getNextAvailableKey();
-        pushUndoState();
-        recordMap.put(key, content);
-        recordsChanged = true;
+        recordEdit("add", RecordEdit.put(key, content));
         System.out.println("Record added with key " + key + ".");
     }
 
@@ -81,7 +256,7 @@ public class FileTableMaker {
             System.out.println("No records to delete.");
             return;
         }
-        viewRecords();
+        viewRecordsHead();
         int key = getValidNumber("Enter key of the record to delete: ", 1, Integer.MAX_VALUE);
         if (!recordMap.containsKey(key)) {
             System.out.println("Record not found.");
@@ -89,9 +264,7 @@ public class FileTableMaker {
         }
         System.out.println("Record to delete: " + key + ": " + recordMap.get(key));
         if (getYNConfirm("Delete this record?")) {
-            pushUndoState();
-            recordMap.remove(key);
-            recordsChanged = true;
+            recordEdit("delete", RecordEdit.remove(key));
             System.out.println("Record deleted.");
         }
     }
@@ -101,7 +274,7 @@ public class FileTableMaker {
             System.out.println("No records to update.");
             return;
         }
-        viewRecords();
+        viewRecordsHead();
         int key = getValidNumber("Enter key of the record to update: ", 1, Integer.MAX_VALUE);
         if (!recordMap.containsKey(key)) {
             System.out.println("Record not found.");
@@ -112,9 +285,7 @@ public class FileTableMaker {
         String content = in.nextLine().trim();
         System.out.println("Preview: " + key + ": " + content);
         if (getYNConfirm("Update this record?")) {
-            pushUndoState();
-            recordMap.put(key, content);
-            recordsChanged = true;
+            recordEdit("update", RecordEdit.put(key, content));
             System.out.println("Record updated.");
         }
     }
@@ -124,7 +295,7 @@ public class FileTableMaker {
             System.out.println("Not enough records to move.");
             return;
         }
-        viewRecords();
+        viewRecordsHead();
         int fromKey = getValidNumber("Enter key of the record to move: ", 1, Integer.MAX_VALUE);
         int toKey = getValidNumber("Enter destination key to swap with: ", 1, Integer.MAX_VALUE);
         if (!recordMap.containsKey(fromKey) || !recordMap.containsKey(toKey)) {
@@ -134,11 +305,7 @@ public class FileTableMaker {
         System.out.println("Preview: " + fromKey + ": " + recordMap.get(fromKey)
                 + " <--> " + toKey + ": " + recordMap.get(toKey));
         if (getYNConfirm("Proceed with move (swap)?")) {
-            pushUndoState();
-            String temp = recordMap.get(fromKey);
-            recordMap.put(fromKey, recordMap.get(toKey));
-            recordMap.put(toKey, temp);
-            recordsChanged = true;
+            recordEdit("move", RecordEdit.swap(fromKey, toKey));
             System.out.println("Records swapped.");
         }
     }
@@ -149,9 +316,7 @@ public class FileTableMaker {
             return;
         }
         if (getYNConfirm("Clear all records?")) {
-            pushUndoState();
-            recordMap.clear();
-            recordsChanged = true;
+            recordEdit("clear", RecordEdit.replace(newRecords()));
             System.out.println("All records cleared.");
         }
     }
@@ -159,91 +324,511 @@ public class FileTableMaker {
     private static void saveRecords() {
         System.out.print("Enter filename to save: ");
         String filename = in.nextLine().trim();
-        if (Files.exists(Path.of(filename))) {
-            String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
-            Path versionPath = Path.of(VERSION_FOLDER, filename + "_" + timestamp + ".bak");
-            try {
-                Files.copy(Path.of(filename), versionPath);
-                System.out.println("Previous version saved to " + versionPath);
-            } catch (IOException e) {
-                System.out.println("Versioning failed: " + e.getMessage());
-            }
+        try {
+            saveRecords(filename, System.out::println, true);
+        } catch (IOException e) {
+            System.out.println("Error saving file: " + e.getMessage());
         }
-        try (PrintWriter out = new PrintWriter(filename)) {
-            recordMap.forEach((k, v) -> out.println(k + "=" + v));
-            currentFileName = filename;
+    }
+
+    /**
+     * Save to the file. In journal mode, saving again to the file last saved or loaded only appends
+     * the edits made since then to its journal; otherwise the old file is versioned and rewritten.
+     * @param inBackground - rewrite a snapshot of the records on the background writer and return at once
+     */
+    private static void saveRecords(String filename, Consumer<String> report, boolean inBackground) throws IOException {
+        Path path = Path.of(filename);
+        if (JOURNAL_MODE && filename.equals(currentFileName)) saves.awaitIdle(); // append to the base it wrote
+        if (JOURNAL_MODE && filename.equals(currentFileName) && !unsavedReplace && Files.exists(path)) {
+            long journalSize;
+            try (Metrics.Sample sample = metrics.time("save")) {
+                Path journal = RecordJournal.journalFor(path);
+                long before = Files.exists(journal) ? Files.size(journal) : 0;
+                journalSize = RecordJournal.append(path, unsavedEdits);
+                sample.bytes(journalSize - before);
+            }
+            report.accept("Appended " + unsavedEdits.size() + " changes to " + RecordJournal.journalFor(path)
+                    + " (" + journalSize + " bytes)");
+            unsavedEdits.clear();
             recordsChanged = false;
-            System.out.println("Records saved to " + filename);
+            rebase(path);
+            if (journalSize > JOURNAL_COMPACT_BYTES) {
+                RecordJournal.compactInBackground(path, versionStore, catalog, versionPathFor(filename),
+                        System.out::println);
+            }
+            return;
+        }
+        if (!inBackground) saveTable(filename, recordMap, report);
+        rebase(path);
+        currentFileName = filename;
+        recordsChanged = false;
+        unsavedEdits.clear();
+        unsavedReplace = false;
+        if (inBackground) { // after marking the records saved, so a failed write marks them unsaved again
+            IntRecordMap<String> snapshot;
+            synchronized (checkpointLock) { // snapshot() marks the pages shared
+                snapshot = recordMap.snapshot();
+            }
+            saves.submit(filename, () -> saveTable(filename, snapshot, report), report, () -> {
+                recordsChanged = true;
+                unsavedReplace = true;
+                synchronized (checkpointLock) {
+                    changedEverything(); // the file does not hold these records
+                }
+            });
+            report.accept("Saving to " + filename + " in the background.");
+        }
+    }
+
+    /** Version the existing file, write the records over it, drop its journal and note it in the catalog. */
+    static void saveTable(String filename, IntRecordMap<String> records, Consumer<String> report) throws IOException {
+        Path path = Path.of(filename);
+        try (Metrics.Sample sample = metrics.time("save")) {
+            saveTable(path, records, report);
+            sample.bytes(Files.size(path));
+        }
+    }
+
+    private static void saveTable(Path path, IntRecordMap<String> records, Consumer<String> report) throws IOException {
+        String filename = path.toString();
+        try {
+            VersionStore.Stored version = versionExistingFile(filename);
+            if (version != null) report.accept("Previous version saved to " + version.describe());
         } catch (IOException e) {
-            System.out.println("Error saving file: " + e.getMessage());
+            report.accept("Versioning failed: " + e.getMessage());
+        }
+        int multiLine;
+        synchronized (RecordJournal.LOCK) { // a compaction of the same file writes the same temporary file
+            multiLine = BackgroundWriter.replace(path,
+                    temp -> writeTable(temp, records, BinaryTableFormat.isBinaryName(filename)));
+            RecordJournal.delete(path);
+        }
+        report.accept("Records saved to " + filename);
+        try {
+            catalog.saved(path, records.size());
+        } catch (IOException e) {
+            report.accept("Catalog update failed: " + e.getMessage());
+        }
+        if (multiLine > 0) {
+            report.accept("Warning: " + multiLine + " records contain line breaks and will not load back"
+                    + " correctly from text; save as " + BinaryTableFormat.EXTENSION + " to keep them.");
+        }
+    }
+
+    /** @return - the stored version of the existing file, or null if there was nothing to version */
+    private static VersionStore.Stored versionExistingFile(String filename) throws IOException {
+        Path path = Path.of(filename);
+        if (!Files.exists(path)) return null;
+        try (Metrics.Sample sample = metrics.time("version")) {
+            VersionStore.Stored stored = versionStore.store(path, versionPathFor(filename));
+            catalog.versioned(path, stored.manifest(), stored.bytes());
+            sample.bytes(stored.newBytes());
+            return stored;
+        }
+    }
+
+    private static Path versionPathFor(String filename) {
+        return VersionStore.newManifestPath(Path.of(VERSION_FOLDER), Path.of(filename).getFileName() + "_", ".bak");
+    }
+
+    /**
+     * Write a table as "key=value" text, compressed if -Dftm.compress.level is set, or in the binary format.
+     * @return - number of values that contain line breaks and cannot round-trip through a text file
+     */
+    static int writeTable(Path path, IntRecordMap<String> records, boolean binary) throws IOException {
+        if (binary) {
+            BinaryTableFormat.write(path, records);
+            return 0;
+        }
+        if (records.isOffHeap()) return writeTextUtf8(path, records);
+        int[] lineBreaks = new int[1];
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(CompressedFile.output(path), StandardCharsets.UTF_8)))) {
+            records.forEach((k, v) -> {
+                if (v.indexOf('\n') >= 0 || v.indexOf('\r') >= 0) lineBreaks[0]++;
+                out.println(k + "=" + v);
+            });
+            if (out.checkError()) throw new IOException("Write to " + path + " failed.");
+        }
+        return lineBreaks[0];
+    }
+
+    /** Text save of an off-heap table: each value's bytes go from its slab to the file without decoding. */
+    private static int writeTextUtf8(Path path, IntRecordMap<String> records) throws IOException {
+        byte[] newline = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer[] buffer = {ByteBuffer.allocateDirect(1 << 20)};
+        int[] lineBreaks = new int[1];
+        try (WritableByteChannel channel = CompressedFile.LEVEL > 0 ? Channels.newChannel(CompressedFile.output(path))
+                : FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            records.forEachUtf8((key, utf8, offset, length) -> {
+                byte[] prefix = (key + "=").getBytes(StandardCharsets.US_ASCII);
+                int needed = prefix.length + length + newline.length;
+                if (buffer[0].remaining() < needed) {
+                    writeFully(channel, buffer[0].flip());
+                    buffer[0] = buffer[0].capacity() < needed ? ByteBuffer.allocateDirect(needed) : buffer[0].clear();
+                }
+                for (int i = offset; i < offset + length; i++) {
+                    byte b = utf8.get(i);
+                    if (b == '\n' || b == '\r') {
+                        lineBreaks[0]++;
+                        break;
+                    }
+                }
+                ByteBuffer out = buffer[0].put(prefix);
+                out.put(out.position(), utf8, offset, length).position(out.position() + length).put(newline);
+            });
+            writeFully(channel, buffer[0].flip());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return lineBreaks[0];
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) {
+        try {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Read a saved table in either format, without its journal. An off-heap map takes the values'
+     * bytes as they are in the file.
+     * @return - bytes read
+     */
+    static long readTable(Path path, IntRecordMap<String> records) throws IOException {
+        boolean binary = BinaryTableFormat.isBinaryFile(path);
+        if (records.isOffHeap()) {
+            return binary ? BinaryTableFormat.readUtf8(path, records::putUtf8) : MappedRecordLoader.loadUtf8(path, records::putUtf8);
+        }
+        return binary ? BinaryTableFormat.read(path, records::put) : MappedRecordLoader.load(path, records::put);
+    }
+
+    /** Read a saved table plus any journal saved on top of it. @return - bytes read */
+    static long readSavedTable(Path path, IntRecordMap<String> records, Consumer<String> report) throws IOException {
+        synchronized (RecordJournal.LOCK) {
+            long bytes = readTable(path, records);
+            long replayed = RecordJournal.replay(path, records, report);
+            if (replayed > 0) report.accept("Replayed " + replayed + " journaled changes.");
+            return bytes;
         }
     }
 
     private static void loadRecords() {
         System.out.print("Enter filename to load: ");
         String filename = in.nextLine().trim();
+        saves.awaitIdle();
         if (!Files.exists(Path.of(filename))) {
             System.out.println("File not found.");
             return;
         }
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-            pushUndoState();
-            recordMap.clear();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split("=", 2);
-                if (parts.length == 2) {
-                    recordMap.put(Integer.parseInt(parts[0]), parts[1]);
-                }
-            }
-            currentFileName = filename;
-            recordsChanged = false;
+        try {
+            long start = System.nanoTime();
+            long bytes = readRecords(filename, System.out::println);
+            double seconds = (System.nanoTime() - start) / 1e9;
             System.out.println("Records loaded from " + filename);
+            System.out.printf("%d records, %.1f MB in %.0f ms (%.1f MB/s)%n", recordMap.size(),
+                    bytes / 1e6, seconds * 1000, seconds > 0 ? bytes / 1e6 / seconds : 0.0);
         } catch (IOException | NumberFormatException e) {
             System.out.println("Error loading file: " + e.getMessage());
         }
     }
 
+    /**
+     * Replace the records with the file's contents, plus any journal saved on top of it, as one undoable edit.
+     * A version manifest is restored from the version store and left unnamed, so it is saved under a new name.
+     * @return - bytes read
+     */
+    private static long readRecords(String filename, Consumer<String> report) throws IOException {
+        try (Metrics.Sample sample = metrics.time("load")) {
+            long bytes = readFile(filename, report);
+            sample.bytes(bytes);
+            return bytes;
+        }
+    }
+
+    private static long readFile(String filename, Consumer<String> report) throws IOException {
+        IntRecordMap<String> loaded = newRecords();
+        Path path = Path.of(filename);
+        if (VersionStore.isManifest(path)) {
+            Path restored = Files.createTempFile("ftm-version", ".tmp");
+            try {
+                versionStore.restore(path, restored);
+                long bytes = readTable(restored, loaded);
+                recordEdit("replace", RecordEdit.replace(loaded));
+                currentFileName = null;
+                report.accept("Restored version " + VersionStore.displayName(path) + "; save it under a file name.");
+                return bytes;
+            } finally {
+                Files.deleteIfExists(restored);
+            }
+        }
+        long bytes = readSavedTable(path, loaded, report);
+        recordEdit("replace", RecordEdit.replace(loaded));
+        rebase(path);
+        currentFileName = filename;
+        recordsChanged = false;
+        unsavedEdits.clear();
+        unsavedReplace = false;
+        return bytes;
+    }
+
     private static void listSavedFiles() {
+        saves.awaitIdle();
         try {
-            Files.list(Path.of(".")).filter(Files::isRegularFile).forEach(p -> System.out.println(p.getFileName()));
+            for (VersionCatalog.Entry file : catalog.savedFiles()) System.out.println(file.describe("records"));
         } catch (IOException e) {
             System.out.println("Failed to list files.");
         }
     }
 
     private static void undo() {
-        if (undoStack.isEmpty()) {
+        if (!history.undo(edit -> applyEdit("undo", edit))) {
             System.out.println("Nothing to undo.");
             return;
         }
-        redoStack.push(new HashMap<>(recordMap));
-        recordMap = undoStack.pop();
         recordsChanged = true;
         System.out.println("Undo performed.");
     }
 
     private static void redo() {
-        if (redoStack.isEmpty()) {
+        if (!history.redo(edit -> applyEdit("redo", edit))) {
             System.out.println("Nothing to redo.");
             return;
         }
-        undoStack.push(new HashMap<>(recordMap));
-        recordMap = redoStack.pop();
         recordsChanged = true;
         System.out.println("Redo performed.");
     }
 
-    private static void pushUndoState() {
-        undoStack.push(new HashMap<>(recordMap));
-        redoStack.clear();
+    /** @param operation - what the edit is timed as in the metrics, e.g. "add" */
+    private static void recordEdit(String operation, RecordEdit edit) {
+        history.record(applyEdit(operation, edit));
+        recordsChanged = true;
+    }
+
+    private static RecordEdit applyEdit(String operation, RecordEdit edit) {
+        return metrics.time(operation, () -> applyEdit(edit));
+    }
+
+    /**
+     * Apply an edit to the records and return the edit that reverses it. Every change to the records
+     * comes through here, under checkpointLock, so a checkpoint never sees half an edit.
+     */
+    private static RecordEdit applyEdit(RecordEdit edit) {
+        if (JOURNAL_MODE) {
+            if (edit.kind() == RecordEdit.Kind.REPLACE) {
+                unsavedEdits.clear();
+                unsavedReplace = true;
+            } else {
+                unsavedEdits.add(edit);
+            }
+        }
+        RecordEdit inverse;
+        synchronized (checkpointLock) {
+            if (checkpoints != null) {
+                switch (edit.kind()) {
+                    case PUT, REMOVE -> changedKeys.add(edit.key());
+                    case SWAP -> {
+                        changedKeys.add(edit.key());
+                        changedKeys.add(edit.otherKey());
+                    }
+                    default -> changedEverything();
+                }
+            }
+            inverse = applyToRecords(edit);
+        }
+        if (checkpoints != null) checkpoints.edited();
+        return inverse;
+    }
+
+    private static RecordEdit applyToRecords(RecordEdit edit) {
+        assert Thread.holdsLock(checkpointLock) : "records changed outside checkpointLock";
+        switch (edit.kind()) {
+            case PUT -> {
+                String previous = recordMap.put(edit.key(), edit.value());
+                reindex(edit.key(), previous, edit.value());
+                return previous == null ? RecordEdit.remove(edit.key()) : RecordEdit.put(edit.key(), previous);
+            }
+            case REMOVE -> {
+                String removed = recordMap.remove(edit.key());
+                reindex(edit.key(), removed, null);
+                return RecordEdit.put(edit.key(), removed);
+            }
+            case SWAP -> {
+                String temp = recordMap.get(edit.key());
+                String other = recordMap.get(edit.otherKey());
+                recordMap.put(edit.key(), other);
+                recordMap.put(edit.otherKey(), temp);
+                reindex(edit.key(), temp, other);
+                reindex(edit.otherKey(), other, temp);
+                return edit;
+            }
+            default -> {
+                IntRecordMap<String> previous = recordMap;
+                recordMap = edit.records();
+                if (searchIndex != null) searchIndex.rebuild();
+                return RecordEdit.replace(previous);
+            }
+        }
+    }
+
+    /** Move a record's entry in the search index, if there is one, from its old text to its new one (null for none). */
+    private static void reindex(int key, String previous, String value) {
+        if (searchIndex == null) return;
+        if (previous != null) searchIndex.remove(key, previous);
+        if (value != null) searchIndex.add(key, value);
+    }
+
+    /** The records now match the saved file: later checkpoints hold only what changes from here. */
+    private static void rebase(Path base) {
+        synchronized (checkpointLock) {
+            checkpointBase = base;
+            rebased = true;
+            changedAll = false;
+            changedKeys.clear();
+        }
+    }
+
+    /** The next checkpoint writes every record; the caller holds checkpointLock. */
+    private static void changedEverything() {
+        checkpointBase = null;
+        rebased = true;
+        changedAll = true;
+        changedKeys.clear();
+    }
+
+    private static void writeCheckpointPut(DataOutputStream out, int key, String value) throws IOException {
+        out.writeByte(CHECKPOINT_PUT);
+        out.writeInt(key);
+        Checkpointer.writeText(out, value);
+    }
+
+    /** Offer to restore the changes that a session which did not exit cleanly left in its recovery file. */
+    private static void offerRecovery() {
+        try {
+            Checkpointer.Recovery recovery = checkpoints.recovery(System.out::println);
+            if (recovery == null) return;
+            String when = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(recovery.modified()));
+            System.out.println("Found unsaved changes from " + when
+                    + (recovery.base() == null ? "." : " to " + recovery.base() + "."));
+            if (!getYNConfirm("Restore them?")) {
+                checkpoints.discard();
+                return;
+            }
+            IntRecordMap<String> restored = recoveredRecords(recovery, System.out::println);
+            recordEdit("replace", RecordEdit.replace(restored));
+            currentFileName = recovery.base() == null ? null : recovery.base().toString();
+            System.out.println("Restored " + restored.size() + " records. Save them to keep them.");
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Could not restore " + checkpoints.file() + ": " + e.getMessage());
+        }
+    }
+
+    /** @return - the records a recovery file holds: its base, plus any journal, with every checkpoint applied */
+    static IntRecordMap<String> recoveredRecords(Checkpointer.Recovery recovery, Consumer<String> report)
+            throws IOException {
+        IntRecordMap<String> restored = newRecords();
+        if (recovery.base() != null) readSavedTable(recovery.base(), restored, report);
+        for (ByteBuffer commit : recovery.commits()) {
+            while (commit.hasRemaining()) {
+                byte op = commit.get();
+                int key = commit.getInt();
+                if (op == CHECKPOINT_PUT) restored.put(key, Checkpointer.readText(commit));
+                else restored.remove(key);
+            }
+        }
+        return restored;
+    }
+
+    /**
+     * Track edits from now on and checkpoint them to the file, as the menu does. Until the checkpointer
+     * is started, checkpoints are written only every -Dftm.checkpoint.ops edits and when it is closed.
+     * @return - the checkpointer, which {@link #reset()} forgets
+     */
+    static Checkpointer trackCheckpoints(Path file, Consumer<String> report) {
+        synchronized (checkpointLock) {
+            checkpoints = new Checkpointer(file, CHECKPOINT_SOURCE, report);
+            return checkpoints;
+        }
+    }
+
+    /** @return - an empty map for the table, off-heap or deduplicated as the settings above ask */
+    static IntRecordMap<String> newRecords() {
+        if (OFF_HEAP) return DEDUP ? IntRecordMap.deduplicatedOffHeap(0) : IntRecordMap.offHeap(0);
+        return DEDUP ? IntRecordMap.deduplicated(0) : new IntRecordMap<>();
     }
 
     private static int getNextAvailableKey() {
-        int key = 1;
-        while (recordMap.containsKey(key)) {
-            key++;
+        return recordMap.lowestFreeKey();
+    }
+
+    /** Batch counterpart of the menu: same operations, no prompts or confirmations. */
+    static boolean executeBatchCommand(String command, String argument, PrintWriter out) throws IOException {
+        switch (command) {
+            case "add" -> recordEdit("add", RecordEdit.put(getNextAvailableKey(), argument));
+            case "update" -> {
+                String[] parts = BatchScript.splitFirst(argument);
+                int key = existingKey(parts[0]);
+                recordEdit("update", RecordEdit.put(key, parts[1]));
+            }
+            case "delete" -> recordEdit("delete", RecordEdit.remove(existingKey(argument)));
+            case "swap", "move" -> {
+                String[] parts = BatchScript.splitFirst(argument);
+                recordEdit("move", RecordEdit.swap(existingKey(parts[0]), existingKey(parts[1])));
+            }
+            case "clear" -> recordEdit("clear", RecordEdit.replace(newRecords()));
+            case "save" -> saveRecords(argument, out::println, false);
+            case "load" -> {
+                if (!Files.exists(Path.of(argument))) throw new FileNotFoundException(argument);
+                readRecords(argument, out::println);
+                out.println("Records loaded from " + argument + " (" + recordMap.size() + " records)");
+            }
+            case "undo" -> {
+                if (!history.undo(edit -> applyEdit("undo", edit))) throw new IllegalStateException("Nothing to undo.");
+                recordsChanged = true;
+            }
+            case "redo" -> {
+                if (!history.redo(edit -> applyEdit("redo", edit))) throw new IllegalStateException("Nothing to redo.");
+                recordsChanged = true;
+            }
+            case "view", "head", "tail", "range" ->
+                    PagedOutput.batchView(command, argument, recordMap.size(), FileTableMaker::printRecords, out);
+            case "stats" -> metrics.print(out::println);
+            case "find" -> {
+                if (argument.isEmpty()) throw new IllegalArgumentException("find needs some text.");
+                int[] keys = findRecords(argument);
+                printMatches(keys, 0, keys.length, out);
+                out.println(keys.length + " matching records");
+            }
+            default -> {
+                return false;
+            }
         }
+        return true;
+    }
+
+    /** Forget records, history and the current file, as if the program had just started. */
+    static void reset() {
+        synchronized (checkpointLock) {
+            recordMap = newRecords();
+            checkpoints = null;
+            checkpointBase = null;
+            changedKeys.clear();
+            changedAll = false;
+            rebased = false;
+        }
+        searchIndex = null;
+        history.clear();
+        unsavedEdits.clear();
+        unsavedReplace = false;
+        recordsChanged = false;
+        currentFileName = null;
+    }
+
+    private static int existingKey(String argument) {
+        int key = BatchScript.intArg(argument, "key");
+        if (!recordMap.containsKey(key)) throw new IllegalArgumentException("Record " + key + " not found.");
         return key;
     }
 
@@ -0,0 +1,47 @@
+package app;
+
+import java.util.BitSet;
+import java.util.function.IntPredicate;
+
+/**
+ * Tracks the lowest unused positive key of an {@link IntRecordMap} without probing from 1 on every add.
+ * Every key below {@code next} is in use except the holes recorded in a bit set, so finding the lowest free
+ * key is a bit-set scan from a cursor or a walk of {@code next} past keys that are already taken.
+ */
+class FreeKeyAllocator {
+    private final BitSet holes = new BitSet();
+    private int next = 1;
+    private int cursor = 1; // no hole exists below this key
+
+    /**
+     * @param inUse - tells whether a key at or above {@code next} is already taken
+     * @return - the lowest positive key that is not in use
+     */
+    int lowestFreeKey(IntPredicate inUse) {
+        int hole = holes.nextSetBit(cursor);
+        if (hole >= 0) {
+            cursor = hole;
+            return hole;
+        }
+        cursor = next;
+        while (inUse.test(next)) next++;
+        return next;
+    }
+
+    void keyAdded(int key) {
+        if (key >= 1 && key < next) holes.clear(key);
+    }
+
+    void keyRemoved(int key) {
+        if (key >= 1 && key < next) {
+            holes.set(key);
+            cursor = Math.min(cursor, key);
+        }
+    }
+
+    void clear() {
+        holes.clear();
+        next = 1;
+        cursor = 1;
+    }
+}
@@ -0,0 +1,212 @@
+package app;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * A list stored as a binary tree where each node knows its subtree size, so get, set, add and remove
+ * at a position all take O(log n) instead of shifting an array tail. Balance comes from randomized
+ * merging: when two subtrees are joined, either root is chosen with probability proportional to its
+ * subtree size, which keeps the expected depth logarithmic whatever order the edits arrive in.
+ * Nodes also point at their parent, so a node held on to finds its current position in O(log n).
+ */
+class IndexedTreeList<E> extends AbstractList<E> {
+    static final class Node<E> {
+        E value;
+        private Node<E> left;
+        private Node<E> right;
+        private Node<E> parent;
+        private int size = 1;
+
+        Node(E value) {
+            this.value = value;
+        }
+    }
+
+    private final SplittableRandom random = new SplittableRandom(0x7EE5);
+    private Node<E> root;
+
+    IndexedTreeList() {
+    }
+
+    IndexedTreeList(Collection<? extends E> source) {
+        Object[] values = source.toArray();
+        setRoot(build(values, 0, values.length));
+    }
+
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    @Override
+    public E get(int index) {
+        return nodeAt(Objects.checkIndex(index, size())).value;
+    }
+
+    @Override
+    public E set(int index, E value) {
+        Node<E> node = nodeAt(Objects.checkIndex(index, size()));
+        E previous = node.value;
+        node.value = value;
+        return previous;
+    }
+
+    @Override
+    public void add(int index, E value) {
+        Objects.checkIndex(index, size() + 1);
+        if (index == size()) {
+            setRoot(merge(root, new Node<>(value)));
+        } else {
+            Node<E>[] parts = split(root, index);
+            setRoot(merge(merge(parts[0], new Node<>(value)), parts[1]));
+        }
+        modCount++;
+    }
+
+    @Override
+    public E remove(int index) {
+        Objects.checkIndex(index, size());
+        Node<E>[] parts = split(root, index);
+        Node<E>[] rest = split(parts[1], 1);
+        setRoot(merge(parts[0], rest[1]));
+        modCount++;
+        return rest[0].value;
+    }
+
+    @Override
+    public void clear() {
+        root = null;
+        modCount++;
+    }
+
+    /** In-order walk with an explicit stack: O(1) amortized per element rather than a descent per get(). */
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<>() {
+            private final ArrayDeque<Node<E>> path = new ArrayDeque<>();
+            private final int expectedModCount = modCount;
+
+            {
+                descendLeft(root);
+            }
+
+            @Override
+            public boolean hasNext() {
+                return !path.isEmpty();
+            }
+
+            @Override
+            public E next() {
+                if (modCount != expectedModCount) throw new ConcurrentModificationException();
+                if (path.isEmpty()) throw new NoSuchElementException();
+                Node<E> node = path.pop();
+                descendLeft(node.right);
+                return node.value;
+            }
+
+            private void descendLeft(Node<E> node) {
+                for (; node != null; node = node.left) path.push(node);
+            }
+        };
+    }
+
+    /** @return - the node holding the element at a position; it stays the element's node until that is removed */
+    Node<E> node(int index) {
+        return nodeAt(Objects.checkIndex(index, size()));
+    }
+
+    /** @return - the current position of a node of this list, counted on the way up to the root */
+    int position(Node<E> node) {
+        int position = size(node.left);
+        for (Node<E> child = node, parent = node.parent; parent != null; child = parent, parent = parent.parent) {
+            if (parent.right == child) position += size(parent.left) + 1;
+        }
+        return position;
+    }
+
+    /** Visit every node in list order. */
+    void forEachNode(Consumer<Node<E>> action) {
+        ArrayDeque<Node<E>> path = new ArrayDeque<>();
+        for (Node<E> node = root; node != null || !path.isEmpty(); node = node.right) {
+            for (; node != null; node = node.left) path.push(node);
+            node = path.pop();
+            action.accept(node);
+        }
+    }
+
+    private Node<E> nodeAt(int index) {
+        Node<E> node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /** @return - the first count elements and the rest, as two trees */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Node<E>[] split(Node<E> node, int count) {
+        if (node == null) return new Node[2];
+        int leftSize = size(node.left);
+        if (count <= leftSize) {
+            Node<E>[] parts = split(node.left, count);
+            node.left = parts[1];
+            update(node);
+            parts[1] = node;
+            return parts;
+        }
+        Node<E>[] parts = split(node.right, count - leftSize - 1);
+        node.right = parts[0];
+        update(node);
+        parts[0] = node;
+        return parts;
+    }
+
+    /** Join two trees, every element of a coming before every element of b. */
+    private Node<E> merge(Node<E> a, Node<E> b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (random.nextInt(a.size + b.size) < a.size) {
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        }
+        b.left = merge(a, b.left);
+        update(b);
+        return b;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node<E> build(Object[] values, int from, int to) {
+        if (from >= to) return null;
+        int middle = (from + to) >>> 1;
+        Node<E> node = new Node<>((E) values[middle]);
+        node.left = build(values, from, middle);
+        node.right = build(values, middle + 1, to);
+        update(node);
+        return node;
+    }
+
+    private void setRoot(Node<E> node) {
+        root = node;
+        if (node != null) node.parent = null;
+    }
+
+    /** Recount a node whose children changed, and point them back at it. */
+    private static <E> void update(Node<E> node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        if (node.left != null) node.left.parent = node;
+        if (node.right != null) node.right.parent = node;
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+}
@@ -0,0 +1,661 @@
+package app;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Insertion-ordered map from int keys to values, used for FileTableMaker's records.
+ * Entries live in parallel key/value arrays in insertion order; an open-addressing table of slot numbers
+ * indexes them by key. Removed entries leave a tombstone in the ordered arrays until the next compaction.
+ * Per record this costs roughly 14-20 bytes (key, value reference and up to 2.7 table ints) instead of
+ * the ~60 bytes of boxed key and linked entry node in a LinkedHashMap.
+ * The arrays are split into pages of 4096 entries so that {@link #snapshot()} can share them: a snapshot
+ * copies only the lists of pages, and whichever map writes to a shared page first copies that one page.
+ * A map made by {@link #offHeap} keeps String values as UTF-8 in {@link TextSlabs} outside the heap and
+ * only an 8-byte handle per entry on it, decoding a value when it is read. Replaced and removed values
+ * stay in the slabs until they outweigh the live ones; then the live values are copied into new slabs.
+ * A map made by {@link #deduplicated} keeps equal String values as one instance through a {@link ValueStore},
+ * and one made by {@link #deduplicatedOffHeap} keeps them as one copy in the slabs through a {@link SlabValueStore}.
+ * A snapshot of either is deduplicated too: it counts its values into a table of its own on its first write.
+ * A count of live entries per page lets {@link #forEachInRange} skip whole pages without compacting, so
+ * reading a window never writes to the map.
+ */
+class IntRecordMap<V> {
+    private static final int MIN_CAPACITY = 16;
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    interface EntryConsumer<V> {
+        void accept(int key, V value);
+    }
+
+    private int[][] keys;
+    private Object[][] values; // null marks a removed entry; no pages when off-heap
+    private long[][] handles;  // off-heap: each value's handle in text, 0 marks a removed entry
+    private int capacity;      // ordered slots allocated; only a single first page is shorter than PAGE_SIZE
+    private int used;          // ordered slots in use, including tombstones
+    private int live;
+    private int[] pageLive;    // live entries in each page of the ordered arrays
+    private int[][] table;     // slot + 1, 0 when empty
+    private int mask;
+    private boolean[] keysOwned;   // pages no snapshot shares, which may be written in place
+    private boolean[] valuesOwned; // covers the handle pages when off-heap
+    private boolean[] tableOwned;
+    private TextSlabs text;    // off-heap: where the values are, shared with snapshots; null otherwise
+    private long textBytes;    // off-heap: slab space of the live values; slabInterned's bytes() when deduplicated
+    private long textAllocated; // off-heap: slab space this map wrote, or took over from its source; never other maps'
+    private long charCount;    // on-heap: total length of the String values, for RecordEdit.estimatedBytes()
+    private ValueStore interned; // deduplicated: the values, each counted once per entry holding it
+    private SlabValueStore slabInterned; // deduplicated off-heap: the same for the values in the slabs
+    private boolean internOnWrite;       // a snapshot of a deduplicated map, before its first write
+    private long snapshotSavedBytes;     // dedupSavedBytes() until then
+    private final FreeKeyAllocator freeKeys = new FreeKeyAllocator();
+
+    IntRecordMap() {
+        this(MIN_CAPACITY);
+    }
+
+    IntRecordMap(int expectedSize) {
+        this(expectedSize, null);
+    }
+
+    private IntRecordMap(int expectedSize, TextSlabs text) {
+        this.text = text;
+        keys = new int[0][];
+        values = new Object[0][];
+        handles = new long[0][];
+        keysOwned = new boolean[0];
+        valuesOwned = new boolean[0];
+        pageLive = new int[0];
+        growSlots(Math.max(MIN_CAPACITY, expectedSize));
+        allocateTable(capacity);
+    }
+
+    /** An empty map keeping its values off the heap; see the class comment. */
+    static IntRecordMap<String> offHeap(int expectedSize) {
+        return new IntRecordMap<>(expectedSize, new TextSlabs());
+    }
+
+    /** An empty on-heap map whose equal values share one String; see {@link ValueStore}. */
+    static IntRecordMap<String> deduplicated(int expectedSize) {
+        IntRecordMap<String> map = new IntRecordMap<>(expectedSize);
+        map.interned = new ValueStore(expectedSize);
+        return map;
+    }
+
+    /** An empty off-heap map whose equal values share one copy in the slabs; see {@link SlabValueStore}. */
+    static IntRecordMap<String> deduplicatedOffHeap(int expectedSize) {
+        IntRecordMap<String> map = offHeap(expectedSize);
+        map.slabInterned = new SlabValueStore(expectedSize);
+        return map;
+    }
+
+    /**
+     * A copy sharing every page of the source; see {@link #snapshot()}. The source's intern table counts
+     * the source's entries, so a copy of a deduplicated map builds its own before it is first written.
+     */
+    private IntRecordMap(IntRecordMap<V> source) {
+        keys = source.keys.clone();
+        values = source.values.clone();
+        handles = source.handles.clone();
+        pageLive = source.pageLive.clone();
+        text = source.text;
+        textBytes = source.textBytes;
+        textAllocated = source.textAllocated;
+        charCount = source.charCount;
+        table = source.table.clone();
+        keysOwned = new boolean[keys.length];
+        valuesOwned = new boolean[keys.length];
+        tableOwned = new boolean[table.length];
+        capacity = source.capacity;
+        used = source.used;
+        live = source.live;
+        mask = source.mask;
+        internOnWrite = source.interned != null || source.slabInterned != null;
+        snapshotSavedBytes = source.dedupSavedBytes();
+    }
+
+    int size() {
+        return live;
+    }
+
+    boolean isEmpty() {
+        return live == 0;
+    }
+
+    boolean containsKey(int key) {
+        return findSlot(key) >= 0;
+    }
+
+    boolean isOffHeap() {
+        return text != null;
+    }
+
+    /**
+     * @return - memory saved by equal values sharing one copy: heap for an on-heap map, slab space for an
+     *           off-heap one; 0 unless the map is deduplicated
+     */
+    long dedupSavedBytes() {
+        if (interned != null) return interned.savedBytes();
+        if (slabInterned != null) return slabInterned.savedBytes();
+        return internOnWrite ? snapshotSavedBytes : 0;
+    }
+
+    /** @return - total length of the String values, kept up to date by every change; 0 off-heap */
+    long charCount() {
+        return charCount;
+    }
+
+    /**
+     * @return - slab bytes the values take outside the heap, including space not yet reclaimed; 0 on-heap.
+     *           Space other maps sharing the slabs have written since is not counted.
+     */
+    long offHeapBytes() {
+        return textAllocated;
+    }
+
+    /** @return - whether both maps read their values from the same slabs, as a snapshot does until either compacts */
+    boolean sharesSlabsWith(IntRecordMap<?> other) {
+        return text != null && text == other.text;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        int slot = findSlot(key);
+        return slot < 0 ? null : (V) value(slot);
+    }
+
+    /**
+     * Insert or replace a value. A replaced key keeps its position in the iteration order.
+     * @return - the previous value, or null if the key was absent
+     */
+    @SuppressWarnings("unchecked")
+    V put(int key, V value) {
+        if (value == null) throw new NullPointerException("IntRecordMap does not store null values");
+        if (internOnWrite) ownInternTable();
+        if (text != null) {
+            long previous = putHandle(key, storeText((String) value));
+            V old = previous == 0 ? null : (V) text.get(previous);
+            compactTextIfSparse();
+            return old;
+        }
+        if (interned != null) value = (V) interned.acquire((String) value);
+        int index = indexFor(key);
+        while (tableAt(index) != 0) {
+            int slot = tableAt(index) - 1;
+            if (key(slot) == key) {
+                V previous = (V) value(slot);
+                setValue(slot, value);
+                charCount += length(value) - length(previous);
+                if (interned != null) interned.release((String) previous);
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+        int slot = newSlot(key, index);
+        setValue(slot, value);
+        charCount += length(value);
+        entryAdded(key);
+        return null;
+    }
+
+    /**
+     * Store a value given as UTF-8 bytes, e.g. straight from a file being loaded. An off-heap map copies
+     * the bytes into its slabs without decoding them; an on-heap map decodes them.
+     */
+    @SuppressWarnings("unchecked")
+    void putUtf8(int key, ByteBuffer utf8, int offset, int length) {
+        if (text == null) {
+            byte[] bytes = new byte[length];
+            utf8.get(offset, bytes);
+            put(key, (V) new String(bytes, StandardCharsets.UTF_8));
+            return;
+        }
+        if (internOnWrite) ownInternTable();
+        putHandle(key, storeUtf8(utf8, offset, length));
+        compactTextIfSparse();
+    }
+
+    /** @return - the removed value, or null if the key was absent */
+    @SuppressWarnings("unchecked")
+    V remove(int key) {
+        if (internOnWrite) ownInternTable();
+        int index = indexFor(key);
+        while (tableAt(index) != 0) {
+            int slot = tableAt(index) - 1;
+            if (key(slot) == key) {
+                V previous = (V) value(slot);
+                if (text == null) charCount -= length(previous);
+                if (interned != null) interned.release((String) previous);
+                clearEntry(slot);
+                live--;
+                pageLive[slot >>> PAGE_SHIFT]--;
+                deleteTableEntry(index);
+                freeKeys.keyRemoved(key);
+                compactTextIfSparse();
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    void clear() {
+        for (int page = 0; page < pageCount(used); page++) {
+            if (text != null) {
+                if (valuesOwned[page]) Arrays.fill(handles[page], 0);
+                else handles[page] = new long[handles[page].length];
+            } else if (valuesOwned[page]) {
+                Arrays.fill(values[page], null);
+            } else {
+                values[page] = new Object[values[page].length];
+            }
+            valuesOwned[page] = true;
+        }
+        if (text != null) {
+            text = new TextSlabs(); // a snapshot may still read the old slabs
+            textBytes = 0;
+            textAllocated = 0;
+        }
+        if (internOnWrite || interned != null || slabInterned != null) {
+            internOnWrite = false;
+            if (text != null) slabInterned = new SlabValueStore(0);
+            else interned = new ValueStore();
+        }
+        charCount = 0;
+        used = 0;
+        live = 0;
+        Arrays.fill(pageLive, 0);
+        allocateTable(mask + 1);
+        freeKeys.clear();
+    }
+
+    /** @return - the lowest positive key not currently in the map, in amortized constant time */
+    int lowestFreeKey() {
+        return freeKeys.lowestFreeKey(this::containsKey);
+    }
+
+    /**
+     * A consistent copy of the map, taken in time proportional to its number of pages rather than its
+     * entries. The two maps share pages until one of them writes to a page, so the copy can be read,
+     * e.g. saved or paged through, on another thread while this map keeps changing. Like every other
+     * method it must not run concurrently with writes to this map.
+     * @return - an independent map with the same entries in the same order
+     */
+    IntRecordMap<V> snapshot() {
+        IntRecordMap<V> copy = new IntRecordMap<>(this);
+        Arrays.fill(keysOwned, false);
+        Arrays.fill(valuesOwned, false);
+        Arrays.fill(tableOwned, false);
+        return copy;
+    }
+
+    /** Visit the live entries in insertion order. */
+    @SuppressWarnings("unchecked")
+    void forEach(EntryConsumer<? super V> action) {
+        if (text != null) {
+            forEachHandle((key, handle) -> action.accept(key, (V) text.get(handle)));
+            return;
+        }
+        for (int page = 0, start = 0; start < used; page++, start += PAGE_SIZE) {
+            int[] pageKeys = keys[page];
+            Object[] pageValues = values[page];
+            int end = Math.min(pageKeys.length, used - start);
+            for (int i = 0; i < end; i++) {
+                Object value = pageValues[i];
+                if (value != null) action.accept(pageKeys[i], (V) value);
+            }
+        }
+    }
+
+    /**
+     * Visit the live entries in insertion order as UTF-8 bytes; an off-heap map hands them over from its
+     * slabs without decoding them, an on-heap map encodes each value.
+     */
+    void forEachUtf8(MappedRecordLoader.Utf8Sink action) {
+        if (text != null) {
+            TextSlabs slabs = text;
+            forEachHandle((key, handle) -> slabs.read(key, handle, action));
+            return;
+        }
+        forEach((key, value) -> {
+            byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+            action.accept(key, ByteBuffer.wrap(bytes), 0, bytes.length);
+        });
+    }
+
+    /**
+     * Visit count live entries starting at the given position in iteration order. Whole pages before the
+     * window are skipped by their live counts, so the cost is the window plus one page and one step per
+     * page before it. Like {@link #forEach} it only reads, so a snapshot can be paged through while
+     * another thread takes snapshots of it.
+     */
+    @SuppressWarnings("unchecked")
+    void forEachInRange(int from, int count, EntryConsumer<? super V> action) {
+        int page = 0;
+        int skip = Math.max(0, from);
+        for (int pages = pageCount(used); page < pages && pageLive[page] <= skip; page++) skip -= pageLive[page];
+        for (int slot = page << PAGE_SHIFT, visited = 0; slot < used && visited < count; slot++) {
+            if (!isLive(slot)) continue;
+            if (skip > 0) {
+                skip--;
+            } else {
+                action.accept(key(slot), (V) value(slot));
+                visited++;
+            }
+        }
+    }
+
+    private interface HandleConsumer {
+        void accept(int key, long handle);
+    }
+
+    private void forEachHandle(HandleConsumer action) {
+        for (int page = 0, start = 0; start < used; page++, start += PAGE_SIZE) {
+            int[] pageKeys = keys[page];
+            long[] pageHandles = handles[page];
+            int end = Math.min(pageKeys.length, used - start);
+            for (int i = 0; i < end; i++) {
+                if (pageHandles[i] != 0) action.accept(pageKeys[i], pageHandles[i]);
+            }
+        }
+    }
+
+    /** Off-heap put. @return - the handle of the value replaced, or 0 if the key was new */
+    private long putHandle(int key, long handle) {
+        if (slabInterned == null) textBytes += TextSlabs.size(text.length(handle));
+        int index = indexFor(key);
+        while (tableAt(index) != 0) {
+            int slot = tableAt(index) - 1;
+            if (key(slot) == key) {
+                long previous = handle(slot);
+                releaseText(previous);
+                setHandle(slot, handle);
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+        int slot = newSlot(key, index);
+        setHandle(slot, handle);
+        entryAdded(key);
+        return 0;
+    }
+
+    /** Claim the next ordered slot for a key absent from the table, whose probe ended at index. */
+    private int newSlot(int key, int index) {
+        if (used == capacity) {
+            makeRoom();
+            index = indexFor(key);
+            while (tableAt(index) != 0) index = (index + 1) & mask;
+        }
+        setKey(used, key);
+        setTable(index, used + 1);
+        pageLive[used >>> PAGE_SHIFT]++; // the caller stores the value next
+        return used++;
+    }
+
+    private static long length(Object value) {
+        return value instanceof CharSequence chars ? chars.length() : 0;
+    }
+
+    /** Count an entry whose new slot now holds its value. */
+    private void entryAdded(int key) {
+        live++;
+        freeKeys.keyAdded(key);
+        if (live > ((mask + 1) >> 2) * 3) allocateTable((mask + 1) * 2);
+    }
+
+    private void clearEntry(int slot) {
+        if (text == null) {
+            setValue(slot, null);
+        } else {
+            releaseText(handle(slot));
+            setHandle(slot, 0);
+        }
+    }
+
+    /** Off-heap: store a value in the slabs, or find an equal one there when deduplicated. @return - its handle */
+    private long storeText(String value) {
+        if (slabInterned == null) {
+            long handle = text.add(value);
+            textAllocated += TextSlabs.size(text.length(handle));
+            return handle;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return storeUtf8(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    /** Off-heap: the same for a value given as UTF-8 bytes. @return - its handle */
+    private long storeUtf8(ByteBuffer utf8, int offset, int length) {
+        if (slabInterned == null) {
+            textAllocated += TextSlabs.size(length);
+            return text.add(utf8, offset, length);
+        }
+        long held = slabInterned.bytes();
+        long handle = slabInterned.acquire(text, utf8, offset, length);
+        textAllocated += slabInterned.bytes() - held; // grows only when the value was new and so appended
+        return handle;
+    }
+
+    /** Off-heap: an entry no longer holds the value; its bytes stay in the slabs until they are compacted. */
+    private void releaseText(long handle) {
+        if (slabInterned != null) slabInterned.release(text, handle);
+        else textBytes -= TextSlabs.size(text.length(handle));
+    }
+
+    /** A snapshot of a deduplicated map is about to be written: count its values into its own intern table. */
+    @SuppressWarnings("unchecked")
+    private void ownInternTable() {
+        internOnWrite = false;
+        if (text != null) {
+            slabInterned = new SlabValueStore(live);
+            forEachHandle((key, handle) -> slabInterned.acquire(text, handle));
+        } else {
+            interned = new ValueStore(live);
+            forEach((key, value) -> interned.acquire((String) value)); // the source made equal values one instance
+        }
+    }
+
+    /**
+     * Once replaced and removed values take more slab space than the live ones (and at least a slab),
+     * copy the live values into new slabs. Each copy at least halves the space, so its cost is covered
+     * by the writes that made the garbage. Snapshots keep reading the old slabs until they are dropped.
+     * Garbage is counted from this map's own share of the slabs: values a snapshot or its source appended
+     * since they parted are no space this map could win back.
+     */
+    private void compactTextIfSparse() {
+        if (text == null) return;
+        long liveBytes = slabInterned == null ? textBytes : slabInterned.bytes();
+        long garbage = textAllocated - liveBytes;
+        if (garbage <= liveBytes || garbage < TextSlabs.SLAB_BYTES) return;
+        TextSlabs fresh = new TextSlabs();
+        Map<Long, Long> copies = slabInterned == null ? null : new HashMap<>();
+        for (int slot = 0; slot < used; slot++) {
+            long handle = handle(slot);
+            if (handle == 0) continue;
+            if (copies == null) setHandle(slot, fresh.copy(text, handle));
+            else setHandle(slot, copies.computeIfAbsent(handle, h -> fresh.copy(text, h))); // shared values once
+        }
+        if (copies != null) slabInterned.moved(copies);
+        text = fresh;
+        textAllocated = fresh.allocated();
+    }
+
+    private int findSlot(int key) {
+        int index = indexFor(key);
+        while (tableAt(index) != 0) {
+            int slot = tableAt(index) - 1;
+            if (key(slot) == key) return slot;
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int indexFor(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private int key(int slot) {
+        return keys[slot >>> PAGE_SHIFT][slot & PAGE_MASK];
+    }
+
+    /** @return - the value, decoded if it is off-heap, or null for a removed entry */
+    private Object value(int slot) {
+        if (text == null) return values[slot >>> PAGE_SHIFT][slot & PAGE_MASK];
+        long handle = handle(slot);
+        return handle == 0 ? null : text.get(handle);
+    }
+
+    private long handle(int slot) {
+        return handles[slot >>> PAGE_SHIFT][slot & PAGE_MASK];
+    }
+
+    private boolean isLive(int slot) {
+        return text == null ? values[slot >>> PAGE_SHIFT][slot & PAGE_MASK] != null : handle(slot) != 0;
+    }
+
+    private int tableAt(int index) {
+        return table[index >>> PAGE_SHIFT][index & PAGE_MASK];
+    }
+
+    /** The setters copy a page that a snapshot shares before writing to it. */
+    private void setKey(int slot, int key) {
+        int page = slot >>> PAGE_SHIFT;
+        if (!keysOwned[page]) {
+            keys[page] = keys[page].clone();
+            keysOwned[page] = true;
+        }
+        keys[page][slot & PAGE_MASK] = key;
+    }
+
+    private void setValue(int slot, Object value) {
+        int page = slot >>> PAGE_SHIFT;
+        if (!valuesOwned[page]) {
+            values[page] = values[page].clone();
+            valuesOwned[page] = true;
+        }
+        values[page][slot & PAGE_MASK] = value;
+    }
+
+    private void setHandle(int slot, long handle) {
+        int page = slot >>> PAGE_SHIFT;
+        if (!valuesOwned[page]) {
+            handles[page] = handles[page].clone();
+            valuesOwned[page] = true;
+        }
+        handles[page][slot & PAGE_MASK] = handle;
+    }
+
+    private void setTable(int index, int entry) {
+        int page = index >>> PAGE_SHIFT;
+        if (!tableOwned[page]) {
+            table[page] = table[page].clone();
+            tableOwned[page] = true;
+        }
+        table[page][index & PAGE_MASK] = entry;
+    }
+
+    /** Backward-shift deletion keeps probe chains intact without table tombstones. */
+    private void deleteTableEntry(int index) {
+        int hole = index;
+        int next = (hole + 1) & mask;
+        while (tableAt(next) != 0) {
+            int home = indexFor(key(tableAt(next) - 1));
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                setTable(hole, tableAt(next));
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        setTable(hole, 0);
+    }
+
+    /** The ordered arrays are full: reclaim tombstones if there are enough of them, otherwise grow. */
+    private void makeRoom() {
+        if (used - live >= used / 4) {
+            compact();
+        } else {
+            growSlots(capacity + (capacity >> 1));
+        }
+    }
+
+    /** Grow the ordered arrays to at least the given number of slots, adding whole pages once past the first. */
+    private void growSlots(int minimum) {
+        int grown = minimum <= PAGE_SIZE ? minimum : (minimum + PAGE_MASK) & ~PAGE_MASK;
+        int oldPages = keys.length;
+        int pages = pageCount(grown);
+        keys = Arrays.copyOf(keys, pages);
+        if (text == null) values = Arrays.copyOf(values, pages);
+        else handles = Arrays.copyOf(handles, pages);
+        keysOwned = Arrays.copyOf(keysOwned, pages);
+        valuesOwned = Arrays.copyOf(valuesOwned, pages);
+        pageLive = Arrays.copyOf(pageLive, pages);
+        int pageLength = Math.min(PAGE_SIZE, grown);
+        if (oldPages > 0 && keys[0].length < pageLength) {
+            keys[0] = Arrays.copyOf(keys[0], pageLength);
+            if (text == null) values[0] = Arrays.copyOf(values[0], pageLength);
+            else handles[0] = Arrays.copyOf(handles[0], pageLength);
+            keysOwned[0] = true;
+            valuesOwned[0] = true;
+        }
+        for (int page = oldPages; page < pages; page++) {
+            keys[page] = new int[pageLength];
+            if (text == null) values[page] = new Object[pageLength];
+            else handles[page] = new long[pageLength];
+            keysOwned[page] = true;
+            valuesOwned[page] = true;
+        }
+        capacity = grown;
+    }
+
+    private void compact() {
+        int target = 0;
+        for (int slot = 0; slot < used; slot++) {
+            if (isLive(slot)) {
+                if (target != slot) {
+                    setKey(target, key(slot));
+                    if (text == null) setValue(target, value(slot));
+                    else setHandle(target, handle(slot));
+                }
+                target++;
+            }
+        }
+        for (int slot = target; slot < used; slot++) {
+            if (!isLive(slot)) continue;
+            if (text == null) setValue(slot, null);
+            else setHandle(slot, 0);
+        }
+        used = target;
+        Arrays.fill(pageLive, 0);
+        for (int page = 0; page < pageCount(used); page++) {
+            pageLive[page] = Math.min(PAGE_SIZE, used - (page << PAGE_SHIFT));
+        }
+        allocateTable(mask + 1);
+    }
+
+    /** Rebuild the index at a power-of-two size of at least minimum, keeping the load factor under 3/4. */
+    private void allocateTable(int minimum) {
+        int needed = Math.max(MIN_CAPACITY, Math.max(minimum, live + live / 3 + 1));
+        int size = Integer.highestOneBit(needed - 1) << 1;
+        int pageLength = Math.min(PAGE_SIZE, size);
+        table = new int[size / pageLength][pageLength];
+        tableOwned = new boolean[table.length];
+        Arrays.fill(tableOwned, true);
+        mask = size - 1;
+        for (int slot = 0; slot < used; slot++) {
+            if (!isLive(slot)) continue;
+            int index = indexFor(key(slot));
+            while (tableAt(index) != 0) index = (index + 1) & mask;
+            table[index >>> PAGE_SHIFT][index & PAGE_MASK] = slot + 1;
+        }
+    }
+
+    private static int pageCount(int slots) {
+        return (slots + PAGE_MASK) >>> PAGE_SHIFT;
+    }
+}
@@ -0,0 +1,381 @@
+package app;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * The FileListMaker list: the items plus a {@link ValueStore} counting how many times each item occurs,
+ * kept in step by every mutation so {@link #contains} is a hash lookup instead of a linear scan.
+ * Counts rather than positions because a list opened from a file may already hold duplicates, which
+ * then share one String.
+ * Items live in an ArrayList, or with -Dftm.list.backend=tree in an {@link IndexedTreeList}, which
+ * inserts and removes at any position in O(log n) at the cost of slower reads.
+ * Once the list is searched, its distinct items are also kept in a {@link SearchIndex}, together with
+ * where each one occurs, so a search never reads the list itself.
+ */
+class ItemList extends AbstractList<String> implements RandomAccess {
+    static final String BACKEND = Settings.text("list.backend", "array");
+    private static final boolean TREE = BACKEND.equalsIgnoreCase("tree");
+
+    private final List<String> items;
+    private final ValueStore values;
+    private long charCount; // total length of all items, for estimatedBytes()
+    private ItemSearch search; // null until the list is first searched
+
+    /** Per item: an array slot or tree node, an index entry and a String with its byte array, excluding the characters. */
+    private static final long ITEM_BYTES = (TREE ? 32 : 8) + 48 + 40;
+
+    ItemList() {
+        this(TREE);
+    }
+
+    /** @param tree - keep the items in an {@link IndexedTreeList}, whatever -Dftm.list.backend says */
+    ItemList(boolean tree) {
+        items = tree ? new IndexedTreeList<>() : new ArrayList<>();
+        values = new ValueStore();
+    }
+
+    ItemList(Collection<String> source) {
+        values = new ValueStore(source.size());
+        String[] kept = new String[source.size()];
+        int i = 0;
+        for (String item : source) {
+            kept[i++] = values.acquire(item);
+            charCount += item.length();
+        }
+        items = TREE ? new IndexedTreeList<>(Arrays.asList(kept)) : new ArrayList<>(Arrays.asList(kept));
+    }
+
+    @Override
+    public String get(int index) {
+        return items.get(index);
+    }
+
+    @Override
+    public int size() {
+        return items.size();
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return Collections.unmodifiableCollection(items).iterator();
+    }
+
+    @Override
+    public boolean contains(Object item) {
+        return values.contains(item);
+    }
+
+    @Override
+    public String set(int index, String item) {
+        Objects.checkIndex(index, items.size());
+        String kept = count(item);
+        String previous = items.set(index, kept);
+        if (search != null) search.occurrences.replaced(index, previous, kept);
+        uncount(previous);
+        return previous;
+    }
+
+    @Override
+    public void add(int index, String item) {
+        Objects.checkIndex(index, items.size() + 1);
+        String kept = count(item);
+        items.add(index, kept);
+        if (search != null) search.occurrences.added(index, kept);
+        modCount++;
+    }
+
+    @Override
+    public String remove(int index) {
+        Objects.checkIndex(index, items.size());
+        if (search != null) search.occurrences.removing(index);
+        String removed = items.remove(index);
+        uncount(removed);
+        modCount++;
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        items.clear();
+        values.clear();
+        charCount = 0;
+        if (search != null) search = new ItemSearch();
+        modCount++;
+    }
+
+    /** @return - a copy of the items as they are now, e.g. to write out on another thread */
+    List<String> snapshot() {
+        return Arrays.asList(items.toArray(new String[0]));
+    }
+
+    /**
+     * Positions of the items matching a query, as {@link SearchIndex#find} takes it, ascending.
+     * The first search builds the index; after that every change to the list keeps it up to date.
+     */
+    int[] find(String query) {
+        buildSearchIndex();
+        IntStream.Builder positions = IntStream.builder();
+        for (int id : search.index.find(query)) search.occurrences.collect(search.text(id), positions);
+        return positions.build().sorted().toArray();
+    }
+
+    /** Build the search index now, on several threads, instead of on the first search. */
+    void buildSearchIndex() {
+        if (search == null) search = new ItemSearch();
+    }
+
+    /** Free the search index, e.g. when the list goes into undo history. @return - whether there was one */
+    boolean dropSearchIndex() {
+        boolean had = search != null;
+        search = null;
+        return had;
+    }
+
+    /** Rough heap footprint of the list and its index. */
+    long estimatedBytes() {
+        return items.size() * ITEM_BYTES + charCount - values.savedBytes();
+    }
+
+    /** @return - heap saved by repeated items sharing one String */
+    long savedBytes() {
+        return values.savedBytes();
+    }
+
+    /** Rough heap footprint of one item held elsewhere, such as in undo history. */
+    static long estimatedBytes(String item) {
+        return ValueStore.bytes(item);
+    }
+
+    /** @return - the instance to keep in the list: an equal item already in it, or this one */
+    private String count(String item) {
+        String kept = values.acquire(item);
+        if (search != null && values.references(kept) == 1) search.added(kept);
+        charCount += item.length();
+        return kept;
+    }
+
+    private void uncount(String item) {
+        if (values.release(item) && search != null) search.removed(item);
+        charCount -= item.length();
+    }
+
+    /** Numbers the distinct items for the search index, reusing the numbers of items that are gone. */
+    private final class ItemSearch implements SearchIndex.Source {
+        private final HashMap<String, Integer> ids = new HashMap<>();
+        private final ArrayList<String> byId = new ArrayList<>();
+        private final ArrayDeque<Integer> freeIds = new ArrayDeque<>();
+        final SearchIndex index;
+        final Occurrences occurrences;
+
+        ItemSearch() {
+            for (String item : values.values()) {
+                ids.put(item, byId.size());
+                byId.add(item);
+            }
+            index = new SearchIndex(this);
+            occurrences = items instanceof IndexedTreeList<String> tree ? new TreeOccurrences(tree) : new ArrayOccurrences();
+        }
+
+        @Override
+        public void forEach(IntRecordMap.EntryConsumer<String> action) {
+            for (int id = 0; id < byId.size(); id++) {
+                String item = byId.get(id);
+                if (item != null) action.accept(id, item);
+            }
+        }
+
+        @Override
+        public String text(int id) {
+            return byId.get(id);
+        }
+
+        void added(String item) {
+            int id;
+            if (freeIds.isEmpty()) {
+                id = byId.size();
+                byId.add(item);
+            } else {
+                id = freeIds.pop();
+                byId.set(id, item);
+            }
+            ids.put(item, id);
+            index.add(id, item);
+        }
+
+        void removed(String item) {
+            int id = ids.remove(item);
+            byId.set(id, null);
+            freeIds.push(id);
+            index.remove(id, item);
+        }
+    }
+
+    /** Where each distinct item occurs, kept up to date by every edit while the list has a search index. */
+    private interface Occurrences {
+        /** items.add(index, item) has just happened */
+        void added(int index, String item);
+
+        /** items.set(index, item) has just replaced previous */
+        void replaced(int index, String previous, String item);
+
+        /** items.remove(index) is about to happen */
+        void removing(int index);
+
+        /** Add the current positions of an item, in no particular order. */
+        void collect(String item, IntStream.Builder positions);
+    }
+
+    /**
+     * Array backend: each item's positions as a sorted int array. An insert or removal before the end
+     * moves the later positions up or down by one, as the ArrayList itself moves the later items.
+     */
+    private final class ArrayOccurrences implements Occurrences {
+        private final HashMap<String, Positions> byItem = new HashMap<>();
+
+        ArrayOccurrences() {
+            int position = 0;
+            for (String item : items) at(item).insert(position++);
+        }
+
+        @Override
+        public void added(int index, String item) {
+            if (index < items.size() - 1) {
+                for (Positions positions : byItem.values()) positions.shift(index, 1);
+            }
+            at(item).insert(index);
+        }
+
+        @Override
+        public void replaced(int index, String previous, String item) {
+            delete(previous, index);
+            at(item).insert(index);
+        }
+
+        @Override
+        public void removing(int index) {
+            delete(items.get(index), index);
+            for (Positions positions : byItem.values()) positions.shift(index + 1, -1);
+        }
+
+        @Override
+        public void collect(String item, IntStream.Builder out) {
+            Positions positions = byItem.get(item);
+            if (positions == null) return;
+            for (int i = 0; i < positions.size; i++) out.add(positions.at[i]);
+        }
+
+        private Positions at(String item) {
+            return byItem.computeIfAbsent(item, key -> new Positions());
+        }
+
+        private void delete(String item, int position) {
+            Positions positions = byItem.get(item);
+            positions.delete(position);
+            if (positions.size == 0) byItem.remove(item);
+        }
+    }
+
+    /** One item's positions, ascending. */
+    private static final class Positions {
+        private int[] at = new int[1];
+        private int size;
+
+        void insert(int position) {
+            int i = firstAtOrAfter(position);
+            if (size == at.length) at = Arrays.copyOf(at, size * 2);
+            System.arraycopy(at, i, at, i + 1, size - i);
+            at[i] = position;
+            size++;
+        }
+
+        void delete(int position) {
+            int i = firstAtOrAfter(position);
+            System.arraycopy(at, i + 1, at, i, size - i - 1);
+            size--;
+        }
+
+        /** Add by to every position from the given one on. */
+        void shift(int from, int by) {
+            for (int i = firstAtOrAfter(from); i < size; i++) at[i] += by;
+        }
+
+        private int firstAtOrAfter(int position) {
+            int i = Arrays.binarySearch(at, 0, size, position);
+            return i < 0 ? -i - 1 : i;
+        }
+    }
+
+    /**
+     * Tree backend: each item's tree nodes, which stay put as the list changes around them; a node's
+     * position is counted from the subtree sizes on its way up to the root, so edits stay O(log n).
+     */
+    private static final class TreeOccurrences implements Occurrences {
+        private final IndexedTreeList<String> tree;
+        // an item's node, or a set of its nodes once it occurs more than once
+        private final HashMap<String, Object> byItem = new HashMap<>();
+
+        TreeOccurrences(IndexedTreeList<String> tree) {
+            this.tree = tree;
+            tree.forEachNode(node -> link(node.value, node));
+        }
+
+        @Override
+        public void added(int index, String item) {
+            link(item, tree.node(index));
+        }
+
+        @Override
+        public void replaced(int index, String previous, String item) {
+            IndexedTreeList.Node<String> node = tree.node(index);
+            unlink(previous, node);
+            link(item, node);
+        }
+
+        @Override
+        public void removing(int index) {
+            IndexedTreeList.Node<String> node = tree.node(index);
+            unlink(node.value, node);
+        }
+
+        @Override
+        public void collect(String item, IntStream.Builder positions) {
+            Object nodes = byItem.get(item);
+            if (nodes instanceof IndexedTreeList.Node<?> node) {
+                positions.add(tree.position(cast(node)));
+            } else if (nodes != null) {
+                for (Object node : (Set<?>) nodes) positions.add(tree.position(cast(node)));
+            }
+        }
+
+        private void link(String item, IndexedTreeList.Node<String> node) {
+            byItem.merge(item, node, (held, added) -> {
+                if (held instanceof Set<?> set) {
+                    Set<IndexedTreeList.Node<String>> nodes = cast(set);
+                    nodes.add(node);
+                    return nodes;
+                }
+                Set<IndexedTreeList.Node<String>> nodes = new HashSet<>();
+                nodes.add(cast(held));
+                nodes.add(node);
+                return nodes;
+            });
+        }
+
+        private void unlink(String item, IndexedTreeList.Node<String> node) {
+            Object held = byItem.get(item);
+            if (!(held instanceof Set<?> set)) {
+                byItem.remove(item);
+                return;
+            }
+            Set<IndexedTreeList.Node<String>> nodes = cast(set);
+            nodes.remove(node);
+            if (nodes.size() == 1) byItem.put(item, nodes.iterator().next());
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> T cast(Object held) {
+            return (T) held;
+        }
+    }
+}
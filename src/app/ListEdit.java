@@ -0,0 +1,77 @@
+package app;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A single change to FileListMaker's list, kept in the undo history in place of a full copy of the list.
+ * Applying an edit yields its inverse; positions are 0-based.
+ */
+record ListEdit(Kind kind, int index, int otherIndex, String item, ItemList items) {
+    enum Kind { ADD, REMOVE, SET, MOVE, REPLACE }
+
+    private static final long ENTRY_BYTES = 48;
+
+    static ListEdit add(int index, String item) {
+        return new ListEdit(Kind.ADD, index, 0, item, null);
+    }
+
+    static ListEdit remove(int index) {
+        return new ListEdit(Kind.REMOVE, index, 0, null, null);
+    }
+
+    static ListEdit set(int index, String item) {
+        return new ListEdit(Kind.SET, index, 0, item, null);
+    }
+
+    /** Take the item out at index and put it back in at otherIndex of the shortened list. */
+    static ListEdit move(int index, int otherIndex) {
+        return new ListEdit(Kind.MOVE, index, otherIndex, null, null);
+    }
+
+    /** Swap in a whole new list; used by clear and open, so the old list is kept by reference, not copied. */
+    static ListEdit replace(ItemList items) {
+        return new ListEdit(Kind.REPLACE, 0, 0, null, items);
+    }
+
+    /** A read-only view of the list as it would be after this edit, without copying or changing the list. */
+    List<String> preview(List<String> list) {
+        if (kind == Kind.REPLACE) return Collections.unmodifiableList(items);
+        int size = list.size() + (kind == Kind.ADD ? 1 : kind == Kind.REMOVE ? -1 : 0);
+        return new AbstractList<>() {
+            @Override
+            public String get(int position) {
+                int source = sourceIndex(Objects.checkIndex(position, size));
+                return source < 0 ? item : list.get(source);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /** @return - where a position after the edit comes from in the list before it, or -1 for the new item */
+    private int sourceIndex(int position) {
+        return switch (kind) {
+            case ADD -> position < index ? position : position == index ? -1 : position - 1;
+            case REMOVE -> position < index ? position : position + 1;
+            case SET -> position == index ? -1 : position;
+            case MOVE -> {
+                if (position == otherIndex) yield index;
+                int shortened = position < otherIndex ? position : position - 1;
+                yield shortened < index ? shortened : shortened + 1;
+            }
+            default -> position;
+        };
+    }
+
+    /** Rough heap footprint of this history entry, including a list it holds on to. */
+    long estimatedBytes() {
+        if (items != null) return ENTRY_BYTES + items.estimatedBytes();
+        return item == null ? ENTRY_BYTES : ENTRY_BYTES + ItemList.estimatedBytes(item);
+    }
+}
@@ -0,0 +1,177 @@
+package app;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Reads FileTableMaker "key=value" save files by memory-mapping them and scanning the raw bytes.
+ * Keys are parsed straight from the mapped bytes and each value is decoded exactly once, or not at all
+ * when it is handed on as UTF-8 bytes for an off-heap table.
+ * Large files are parsed in chunks on several threads by {@link ParallelLoader}.
+ */
+class MappedRecordLoader {
+    /** Bytes copied out of the mapping per scan step. */
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    interface RecordSink {
+        void accept(int key, String value);
+    }
+
+    /** Receives a record whose value is the UTF-8 bytes utf8[offset, offset + length), to be read, not kept. */
+    interface Utf8Sink {
+        void accept(int key, ByteBuffer utf8, int offset, int length);
+    }
+
+    /** A parsed line: its key and the value's bytes block[offset, offset + length). */
+    private interface LineSink {
+        void accept(int key, byte[] block, int offset, int length);
+    }
+
+    /**
+     * Parse every record in the file and hand it to the sink in file order.
+     * @param path - file to read
+     * @param sink - receives each parsed key and value
+     * @return - number of bytes read
+     */
+    static long load(Path path, RecordSink sink) throws IOException {
+        return ParallelLoader.load(path, chunk -> {
+            RecordBatch batch = new RecordBatch();
+            parse(chunk, chunk.limit(), batch);
+            return batch;
+        }, batch -> batch.replay(sink));
+    }
+
+    /** Like {@link #load}, handing each value on as the UTF-8 bytes in the file. */
+    static long loadUtf8(Path path, Utf8Sink sink) throws IOException {
+        return ParallelLoader.load(path, chunk -> {
+            Utf8Batch batch = new Utf8Batch();
+            parse(chunk, chunk.limit(), batch);
+            return batch;
+        }, batch -> batch.replay(sink));
+    }
+
+    /**
+     * Parse the lines of a chunk, copying it through a small reusable block so the scan
+     * runs over a plain array instead of bounds-checked buffer reads.
+     */
+    private static void parse(ByteBuffer buffer, int limit, LineSink sink) {
+        byte[] block = new byte[BLOCK_SIZE];
+        int blockStart = 0; // chunk offset of block[0]
+        int filled = 0;
+        while (blockStart + filled < limit) {
+            int n = Math.min(block.length - filled, limit - blockStart - filled);
+            buffer.get(blockStart + filled, block, filled, n);
+            filled += n;
+            int lineStart = 0;
+            int separator = -1;
+            for (int i = 0; i < filled; i++) {
+                byte b = block[i];
+                if (b == '=') {
+                    if (separator < 0) separator = i;
+                } else if (b == '\n') {
+                    emit(block, lineStart, separator, i, sink);
+                    lineStart = i + 1;
+                    separator = -1;
+                }
+            }
+            if (lineStart == 0 && filled == block.length) {
+                block = Arrays.copyOf(block, block.length * 2); // a single line longer than the block
+                continue;
+            }
+            System.arraycopy(block, lineStart, block, 0, filled - lineStart);
+            blockStart += lineStart;
+            filled -= lineStart;
+        }
+        if (filled > 0) {
+            int separator = -1;
+            for (int i = 0; i < filled && separator < 0; i++) {
+                if (block[i] == '=') separator = i;
+            }
+            emit(block, 0, separator, filled, sink);
+        }
+    }
+
+    private static void emit(byte[] block, int start, int separator, int end, LineSink sink) {
+        if (end > start && block[end - 1] == '\r') end--;
+        if (separator < 0 || separator >= end) return; // not a record line
+        int key = parseKey(block, start, separator);
+        sink.accept(key, block, separator + 1, end - separator - 1);
+    }
+
+    /** Same accepted syntax as {@link Integer#parseInt(String)}, without building a String first. */
+    private static int parseKey(byte[] block, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (block[i] == '-' || block[i] == '+')) {
+            negative = block[i] == '-';
+            i++;
+        }
+        if (i == end || end - i > 10) throw badKey(block, start, end);
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = block[i] - '0';
+            if (digit < 0 || digit > 9) throw badKey(block, start, end);
+            value = value * 10 + digit;
+        }
+        if (negative) value = -value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) throw badKey(block, start, end);
+        return (int) value;
+    }
+
+    private static NumberFormatException badKey(byte[] block, int start, int end) {
+        return new NumberFormatException("For input string: \"" + new String(block, start, end - start, StandardCharsets.UTF_8) + "\"");
+    }
+
+    /** Records parsed from one chunk, held until the chunks before it have been handed on. */
+    private static class RecordBatch implements LineSink {
+        private int[] keys = new int[1024];
+        private String[] values = new String[1024];
+        private int count;
+
+        @Override
+        public void accept(int key, byte[] block, int offset, int length) {
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            keys[count] = key;
+            values[count++] = new String(block, offset, length, StandardCharsets.UTF_8);
+        }
+
+        void replay(RecordSink sink) {
+            for (int i = 0; i < count; i++) sink.accept(keys[i], values[i]);
+        }
+    }
+
+    /** Like RecordBatch, keeping the values as bytes in one array. */
+    private static class Utf8Batch implements LineSink {
+        private int[] keys = new int[1024];
+        private int[] ends = new int[1024]; // where each value ends in bytes
+        private byte[] bytes = new byte[1 << 16];
+        private int count;
+        private int length;
+
+        @Override
+        public void accept(int key, byte[] block, int offset, int valueLength) {
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            if (bytes.length - length < valueLength) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + valueLength));
+            }
+            System.arraycopy(block, offset, bytes, length, valueLength);
+            length += valueLength;
+            keys[count] = key;
+            ends[count++] = length;
+        }
+
+        void replay(Utf8Sink sink) {
+            ByteBuffer utf8 = ByteBuffer.wrap(bytes);
+            for (int i = 0, start = 0; i < count; start = ends[i++]) sink.accept(keys[i], utf8, start, ends[i] - start);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package app;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import jdk.jfr.*;
+
+/**
+ * Counts and latency histograms for one app's operations, plus gauges such as the heap held by undo
+ * history. They are shown by the "stats" command and, with -Dftm.metrics.seconds above 0, appended as
+ * one JSON object per line to -Dftm.metrics.file (default metrics.jsonl) at that interval.
+ * Every operation is also a JFR event (app.Operation) and every gauge a periodic one (app.Gauge), so
+ * a recording started with -XX:StartFlightRecording lines them up with GC pauses.
+ * Histograms have four buckets per power of two nanoseconds, so percentiles are within about 20%.
+ * Timing costs two clock reads per operation; -Dftm.metrics=false turns it off for batch runs where
+ * that matters.
+ */
+class Metrics {
+    static final boolean ENABLED = Settings.flag("metrics", true);
+    static final long DUMP_SECONDS = Settings.number("metrics.seconds", 0);
+    static final String DUMP_FILE = Settings.text("metrics.file", "metrics.jsonl");
+
+    private static final int BUCKETS = 248; // up to 2^63 ns
+
+    @Name("app.Operation")
+    @Label("Operation")
+    @Category("FileTableMaker")
+    @Description("One load, save, edit, undo, redo or versioning copy")
+    static class OperationEvent extends Event {
+        @Label("App")
+        String app;
+        @Label("Operation")
+        String operation;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("app.Gauge")
+    @Label("Gauge")
+    @Category("FileTableMaker")
+    @Period("1 s")
+    static class GaugeEvent extends Event {
+        @Label("App")
+        String app;
+        @Label("Name")
+        String name;
+        @Label("Value")
+        long value;
+    }
+
+    private static final EventType OPERATION_EVENT = EventType.getEventType(OperationEvent.class);
+
+    /** One operation in progress; closing it records its latency and bytes. */
+    final class Sample implements AutoCloseable {
+        private final Operation operation; // null when metrics are off
+        private final OperationEvent event; // null unless a recording wants operations
+        private final long start;
+        private long bytes;
+
+        private Sample(Operation operation) {
+            this.operation = operation;
+            event = operation != null && OPERATION_EVENT.isEnabled() ? new OperationEvent() : null;
+            if (event != null) event.begin();
+            start = operation != null ? System.nanoTime() : 0;
+        }
+
+        /** Note bytes read or written by the operation. */
+        void bytes(long count) {
+            bytes += count;
+        }
+
+        @Override
+        public void close() {
+            if (operation == null) return;
+            operation.record(System.nanoTime() - start, bytes);
+            if (event != null && event.shouldCommit()) {
+                event.app = app;
+                event.operation = operation.name;
+                event.bytes = bytes;
+                event.commit();
+            }
+        }
+    }
+
+    /** Count, byte total and latency histogram of one operation; recorded from any thread. */
+    private static final class Operation {
+        final String name;
+        private final long[] buckets = new long[BUCKETS];
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+        private long bytes;
+
+        Operation(String name) {
+            this.name = name;
+        }
+
+        synchronized void record(long nanos, long byteCount) {
+            buckets[bucket(nanos)]++;
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            bytes += byteCount;
+        }
+
+        synchronized Summary summary() {
+            return new Summary(name, count, count == 0 ? 0 : totalNanos / count,
+                    percentile(0.5), percentile(0.99), maxNanos, bytes);
+        }
+
+        /** @return - upper bound of the bucket holding the given fraction of samples, at most the maximum */
+        private long percentile(double fraction) {
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += buckets[b];
+                if (seen >= rank && seen > 0) return Math.min(upperBound(b), maxNanos);
+            }
+            return maxNanos;
+        }
+    }
+
+    /** One operation's figures, in nanoseconds. */
+    record Summary(String name, long count, long meanNanos, long p50Nanos, long p99Nanos, long maxNanos, long bytes) { }
+
+    private final String app;
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+    private ScheduledExecutorService dumper;
+
+    /** @param app - name the figures are reported under, e.g. "table" */
+    Metrics(String app) {
+        this.app = app;
+        FlightRecorder.addPeriodicEvent(GaugeEvent.class, () -> gauges.forEach((name, gauge) -> {
+            GaugeEvent event = new GaugeEvent();
+            event.app = app;
+            event.name = name;
+            event.value = gauge.getAsLong();
+            event.commit();
+        }));
+    }
+
+    /** Start timing an operation. */
+    Sample time(String operation) {
+        if (!ENABLED) return new Sample(null);
+        Operation known = operations.get(operation);
+        return new Sample(known != null ? known : operations.computeIfAbsent(operation, Operation::new));
+    }
+
+    /** Run work and record how long it took as the given operation. */
+    <T> T time(String operation, Supplier<T> work) {
+        if (!ENABLED) return work.get();
+        Sample sample = time(operation);
+        try {
+            return work.get();
+        } finally {
+            sample.close();
+        }
+    }
+
+    /** @param gauge - read from the dump and JFR threads, so it must be safe to call from any thread */
+    void gauge(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /** Print a table of the operations and gauges. */
+    void print(Consumer<String> out) {
+        if (!ENABLED) {
+            out.accept("Operations are not timed (-Dftm.metrics=false).");
+        } else if (operations.isEmpty()) {
+            out.accept("No operations recorded yet.");
+        } else {
+            out.accept(String.format("%-10s %10s %10s %10s %10s %10s %12s",
+                    "Operation", "Count", "Mean ms", "p50 ms", "p99 ms", "Max ms", "KB"));
+            for (Operation operation : new TreeMap<>(operations).values()) {
+                Summary s = operation.summary();
+                out.accept(String.format("%-10s %,10d %10.3f %10.3f %10.3f %10.3f %,12d", s.name(), s.count(),
+                        s.meanNanos() / 1e6, s.p50Nanos() / 1e6, s.p99Nanos() / 1e6, s.maxNanos() / 1e6, s.bytes() / 1024));
+            }
+        }
+        gauges.forEach((name, gauge) -> out.accept(String.format("%s: %,d", name, gauge.getAsLong())));
+    }
+
+    /** @return - one JSON object with the time, every operation's summary and every gauge */
+    String json() {
+        StringBuilder json = new StringBuilder("{\"time\":").append(System.currentTimeMillis())
+                .append(",\"app\":\"").append(app).append("\",\"operations\":{");
+        String separator = "";
+        for (Operation operation : new TreeMap<>(operations).values()) {
+            Summary s = operation.summary();
+            json.append(separator).append('"').append(s.name()).append("\":{\"count\":").append(s.count())
+                    .append(",\"meanNanos\":").append(s.meanNanos())
+                    .append(",\"p50Nanos\":").append(s.p50Nanos())
+                    .append(",\"p99Nanos\":").append(s.p99Nanos())
+                    .append(",\"maxNanos\":").append(s.maxNanos())
+                    .append(",\"bytes\":").append(s.bytes()).append('}');
+            separator = ",";
+        }
+        json.append("},\"gauges\":{");
+        separator = "";
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            json.append(separator).append('"').append(gauge.getKey()).append("\":").append(gauge.getValue().getAsLong());
+            separator = ",";
+        }
+        return json.append("}}").toString(); // names are fixed identifiers, so nothing needs escaping
+    }
+
+    /** Append a line to the dump file every -Dftm.metrics.seconds, if set. */
+    void startDump() {
+        if (DUMP_SECONDS <= 0) return;
+        dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, app + "-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(this::dump, DUMP_SECONDS, DUMP_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /** Stop the periodic dump after one last line. */
+    void stopDump() {
+        if (dumper == null) return;
+        dumper.shutdown();
+        try {
+            dumper.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dump();
+    }
+
+    private void dump() {
+        try {
+            Files.writeString(Path.of(DUMP_FILE), json() + System.lineSeparator(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.out.println("Failed to write metrics to " + DUMP_FILE + ": " + e.getMessage());
+        }
+    }
+
+    /** Bucket of a latency: the value itself below 8 ns, then four buckets per power of two. */
+    static int bucket(long nanos) {
+        if (nanos < 8) return (int) Math.max(0, nanos);
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        return (exponent - 1) * 4 + (int) (nanos >>> (exponent - 2)) - 4;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < 8) return bucket;
+        int exponent = bucket / 4 + 1;
+        long top = (long) (bucket % 4 + 5) << (exponent - 2);
+        return top < 0 ? Long.MAX_VALUE : top - 1; // the last bucket ends at 2^63
+    }
+}
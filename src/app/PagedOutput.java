@@ -0,0 +1,127 @@
+package app;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+
+/**
+ * Prints bounded windows of a long table or list through one large buffered writer,
+ * so the cost of a view depends on the page size rather than on the number of rows.
+ */
+class PagedOutput {
+    static final int PAGE_SIZE = 20;
+
+    interface RowPrinter {
+        /** Print rows at positions from (inclusive) to to (exclusive), 0-based. */
+        void print(int from, int to, PrintWriter out);
+    }
+
+    /** A buffered writer over System.out; flush it before going back to System.out. */
+    static PrintWriter console() {
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16));
+    }
+
+    /** Print rows from..to, clamped to the table, with a note about what lies outside the window. */
+    static void range(int total, int from, int to, RowPrinter rows) {
+        from = Math.max(0, Math.min(from, total));
+        to = Math.max(from, Math.min(to, total));
+        PrintWriter out = console();
+        if (from > 0) out.println("... " + from + " above");
+        rows.print(from, to, out);
+        if (to < total) out.println("... " + (total - to) + " below");
+        out.flush();
+    }
+
+    /** First page, shown before prompting for a row so the prompt never prints the whole table. */
+    static void head(int total, RowPrinter rows) {
+        range(total, 0, PAGE_SIZE, rows);
+    }
+
+    /** A page-sized window centred on one row. */
+    static void around(int total, int position, RowPrinter rows) {
+        int from = Math.max(0, Math.min(position - PAGE_SIZE / 2, total - PAGE_SIZE));
+        range(total, from, from + PAGE_SIZE, rows);
+    }
+
+    /**
+     * Batch view commands: "view" alone prints everything, "view page [size]" one page,
+     * "head [n]" / "tail [n]" the first or last rows and "range a b" rows a through b (1-based).
+     */
+    static void batchView(String command, String argument, int total, RowPrinter rows, PrintWriter out) {
+        String[] args = argument.isEmpty() ? new String[0] : argument.split("\\s+");
+        int first = args.length > 0 ? BatchScript.intArg(args[0], "first argument") : -1;
+        int second = args.length > 1 ? BatchScript.intArg(args[1], "second argument") : -1;
+        switch (command) {
+            case "head" -> rows.print(0, Math.min(total, first < 0 ? PAGE_SIZE : first), out);
+            case "tail" -> rows.print(Math.max(0, total - (first < 0 ? PAGE_SIZE : first)), total, out);
+            case "range" -> {
+                if (second < 0) throw new IllegalArgumentException("range needs <first> <last>");
+                int from = Math.max(0, Math.min(first - 1, total));
+                rows.print(from, Math.max(from, Math.min(second, total)), out);
+            }
+            default -> {
+                if (first < 0) {
+                    rows.print(0, total, out);
+                } else {
+                    int size = second < 1 ? PAGE_SIZE : second;
+                    long from = Math.max(0L, (long) (first - 1) * size);
+                    rows.print((int) Math.min(from, total), (int) Math.min(from + size, total), out);
+                }
+            }
+        }
+    }
+
+    /**
+     * Interactive pager: Enter/N next page, P previous, a number jumps to that page, H head, T tail,
+     * "R a b" shows rows a through b (1-based), "S m" sets the page size, Q returns.
+     * @param in - console input
+     * @param total - number of rows
+     * @param rows - prints a window of rows
+     */
+    static void browse(Scanner in, int total, RowPrinter rows) {
+        int pageSize = PAGE_SIZE;
+        int page = 0;
+        boolean redraw = true;
+        while (true) {
+            int pages = Math.max(1, (total + pageSize - 1) / pageSize);
+            page = Math.max(0, Math.min(page, pages - 1));
+            if (redraw) range(total, page * pageSize, (page + 1) * pageSize, rows);
+            redraw = true;
+            System.out.print("Page " + (page + 1) + " of " + pages
+                    + " - [N]ext, [P]rev, page #, [H]ead, [T]ail, [R] a b range, [S] size, [Q]uit: ");
+            String[] input = in.nextLine().trim().toUpperCase().split("\\s+");
+            switch (input[0]) {
+                case "", "N" -> {
+                    if (page == pages - 1) return;
+                    page++;
+                }
+                case "P" -> page--;
+                case "H" -> page = 0;
+                case "T" -> page = pages - 1;
+                case "Q" -> {
+                    return;
+                }
+                case "R" -> {
+                    if (input.length == 3 && input[1].matches("\\d{1,9}") && input[2].matches("\\d{1,9}")) {
+                        range(total, Integer.parseInt(input[1]) - 1, Integer.parseInt(input[2]), rows);
+                        redraw = false;
+                    } else {
+                        System.out.println("Use R <first> <last>.");
+                    }
+                }
+                case "S" -> {
+                    if (input.length == 2 && input[1].matches("[1-9]\\d{0,5}")) {
+                        page = page * pageSize / Integer.parseInt(input[1]);
+                        pageSize = Integer.parseInt(input[1]);
+                    } else {
+                        System.out.println("Use S <rows per page>.");
+                    }
+                }
+                default -> {
+                    if (input[0].matches("\\d{1,9}")) page = Integer.parseInt(input[0]) - 1;
+                    else System.out.println("Unknown pager command.");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package app;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Loads line-based files by memory-mapping them, cutting each mapped window into chunks at newline
+ * boundaries and parsing the chunks concurrently on a ForkJoinPool. Chunk results are merged on the
+ * calling thread strictly in file order, so the outcome is the same as a sequential read.
+ * A {@link CompressedFile} is read by its blocks instead, each inflated and parsed on its own.
+ * The pool size is -Dftm.load.threads (default: available processors); 1 parses every chunk inline.
+ */
+class ParallelLoader {
+    static final int THREADS = (int) Math.max(1, Settings.number("load.threads",
+            Runtime.getRuntime().availableProcessors()));
+    /** Largest region mapped at a time; a file bigger than this is read in consecutive windows. */
+    private static final long MAX_WINDOW = 1L << 30;
+    /** Smallest chunk worth handing to another thread. */
+    private static final int MIN_CHUNK = 1 << 20;
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static ForkJoinPool pool;
+
+    /**
+     * Parse a file chunk by chunk.
+     * @param parse - parses a buffer of whole lines (the file's final line may lack its newline)
+     * @param merge - receives each chunk's result in file order, on the calling thread
+     * @return - number of bytes read from the file
+     */
+    static <T> long load(Path path, Function<ByteBuffer, T> parse, Consumer<T> merge) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (CompressedFile.isCompressed(channel)) return loadCompressed(channel, parse, merge);
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long length = Math.min(MAX_WINDOW, size - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int complete = position + length == size ? (int) length : lastLineEnd(window, (int) length);
+                if (complete == 0) {
+                    throw new IOException("Line at byte " + position + " is longer than " + MAX_WINDOW + " bytes");
+                }
+                parseInOrder(window, complete, parse, merge);
+                position += complete;
+            }
+            return size;
+        }
+    }
+
+    /** Inflate and parse the blocks of a compressed file, a few per thread at a time so memory stays bounded. */
+    private static <T> long loadCompressed(FileChannel channel, Function<ByteBuffer, T> parse, Consumer<T> merge)
+            throws IOException {
+        List<CompressedFile.Block> blocks = CompressedFile.blocks(channel);
+        int batch = THREADS * CHUNKS_PER_THREAD;
+        try {
+            for (int from = 0; from < blocks.size(); from += batch) {
+                List<Supplier<T>> work = new ArrayList<>(batch);
+                for (CompressedFile.Block block : blocks.subList(from, Math.min(blocks.size(), from + batch))) {
+                    work.add(() -> {
+                        try {
+                            return parse.apply(ByteBuffer.wrap(CompressedFile.inflate(channel, block)));
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                }
+                runInOrder(work, merge);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return channel.size();
+    }
+
+    /** Split [0, length) at line ends and parse the pieces, concurrently when there is more than one. */
+    private static <T> void parseInOrder(ByteBuffer window, int length, Function<ByteBuffer, T> parse, Consumer<T> merge) {
+        int chunks = (int) Math.max(1, Math.min((long) THREADS * CHUNKS_PER_THREAD, length / MIN_CHUNK));
+        List<Supplier<T>> work = new ArrayList<>(chunks);
+        for (int start = 0, c = 1; start < length; c++) {
+            int target = (int) ((long) length * c / chunks);
+            int end = c >= chunks ? length : lineEnd(window, Math.max(start, target), length);
+            ByteBuffer piece = window.slice(start, end - start);
+            work.add(() -> parse.apply(piece));
+            start = end;
+        }
+        runInOrder(work, merge);
+    }
+
+    /** Run the work, concurrently when there is more than one piece, and merge the results in order. */
+    private static <T> void runInOrder(List<Supplier<T>> work, Consumer<T> merge) {
+        if (THREADS == 1 || work.size() == 1) {
+            for (Supplier<T> piece : work) merge.accept(piece.get());
+            return;
+        }
+        List<CompletableFuture<T>> tasks = new ArrayList<>(work.size());
+        for (Supplier<T> piece : work) tasks.add(CompletableFuture.supplyAsync(piece, pool()));
+        try {
+            for (CompletableFuture<T> task : tasks) merge.accept(task.join());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw e;
+        } finally {
+            for (CompletableFuture<T> task : tasks) task.cancel(false);
+        }
+    }
+
+    /**
+     * Whether chunks of text in the charset can be cut at newline bytes: it must write '\n' and '\r' as the
+     * single bytes 10 and 13, as UTF-8, ISO-8859-x and the Windows code pages do. UTF-16 and UTF-32 do not.
+     */
+    static boolean isAsciiCompatible(Charset charset) {
+        return charset.canEncode() && Arrays.equals("\n\r".getBytes(charset), new byte[] {'\n', '\r'});
+    }
+
+    /**
+     * Decode a chunk of an ASCII-compatible charset into its lines, trimmed, as FileListMaker stores them.
+     * Lines end where a Scanner's nextLine() ends them: at \r\n, \n, \r, U+2028, U+2029 or U+0085.
+     */
+    static List<String> trimmedLines(ByteBuffer chunk, Charset charset) {
+        String text = charset.decode(chunk).toString();
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029' || c == '\u0085') {
+                lines.add(text.substring(start, i).trim());
+                if (c == '\r' && i + 1 < text.length() && text.charAt(i + 1) == '\n') i++;
+                start = i + 1;
+            }
+        }
+        if (start < text.length()) lines.add(text.substring(start).trim());
+        return lines;
+    }
+
+    /** The loader's worker pool, shared with other bulk work such as index rebuilds. */
+    static synchronized ForkJoinPool pool() {
+        if (pool == null) pool = new ForkJoinPool(THREADS);
+        return pool;
+    }
+
+    /** @return - position just past the first newline at or after from, or limit if there is none */
+    private static int lineEnd(ByteBuffer buffer, int from, int limit) {
+        for (int i = from; i < limit; i++) {
+            if (buffer.get(i) == '\n') return i + 1;
+        }
+        return limit;
+    }
+
+    /** @return - position just past the last newline before limit, or 0 if there is none */
+    private static int lastLineEnd(ByteBuffer buffer, int limit) {
+        for (int i = limit - 1; i >= 0; i--) {
+            if (buffer.get(i) == '\n') return i + 1;
+        }
+        return 0;
+    }
+}
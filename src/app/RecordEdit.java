@@ -0,0 +1,41 @@
+package app;
+
+/**
+ * A single change to FileTableMaker's records, kept on the undo/redo stacks in place of a full copy of the table.
+ * Applying an edit yields its inverse, so history memory grows with the size of each change.
+ */
+record RecordEdit(Kind kind, int key, int otherKey, String value, IntRecordMap<String> records) {
+    enum Kind { PUT, REMOVE, SWAP, REPLACE }
+
+    private static final long ENTRY_BYTES = 48;
+    /** Per record of a replaced table: key and value slots, a hash table slot and a String, excluding the characters. */
+    private static final long RECORD_BYTES = 4 + 8 + 4 + 40;
+    /** Per record of an off-heap table: key, handle and hash table slots; the values are not on the heap. */
+    private static final long OFF_HEAP_RECORD_BYTES = 4 + 8 + 4;
+
+    static RecordEdit put(int key, String value) {
+        return new RecordEdit(Kind.PUT, key, 0, value, null);
+    }
+
+    static RecordEdit remove(int key) {
+        return new RecordEdit(Kind.REMOVE, key, 0, null, null);
+    }
+
+    static RecordEdit swap(int key, int otherKey) {
+        return new RecordEdit(Kind.SWAP, key, otherKey, null, null);
+    }
+
+    /** Swap in a whole new table; used by clear and load, which touch every record anyway. */
+    static RecordEdit replace(IntRecordMap<String> records) {
+        return new RecordEdit(Kind.REPLACE, 0, 0, null, records);
+    }
+
+    /** Rough heap footprint of this history entry, including a table it holds on to. */
+    long estimatedBytes() {
+        if (records != null && records.isOffHeap()) return ENTRY_BYTES + records.size() * OFF_HEAP_RECORD_BYTES;
+        if (records != null) {
+            return ENTRY_BYTES + records.size() * RECORD_BYTES + records.charCount() - records.dedupSavedBytes();
+        }
+        return value == null ? ENTRY_BYTES : ENTRY_BYTES + ItemList.estimatedBytes(value);
+    }
+}
@@ -0,0 +1,240 @@
+package app;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of record edits kept next to a saved table as "&lt;file&gt;.journal", so a save only writes
+ * what changed since the previous one. The header ties the journal to the exact base file it extends (size and
+ * modification time); each save appends one commit of [length][CRC32C][edits]. Loading replays the commits on
+ * top of the base, and a background compaction folds them into a fresh base once the journal grows too large.
+ */
+class RecordJournal {
+    /** Held while a journal is appended to, replayed or compacted. */
+    static final Object LOCK = new Object();
+
+    private static final byte[] MAGIC = {'F', 'T', 'M', 'J'};
+    private static final int HEADER_SIZE = 24;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte SWAP = 3;
+    private static final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "journal-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static Path journalFor(Path base) {
+        return base.resolveSibling(base.getFileName() + ".journal");
+    }
+
+    /**
+     * Append the edits as one commit, starting a new journal if there is none for this base.
+     * @return - journal size in bytes after the append
+     */
+    static long append(Path base, List<RecordEdit> edits) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream ops = new DataOutputStream(payload);
+        for (RecordEdit edit : edits) {
+            switch (edit.kind()) {
+                case PUT -> {
+                    byte[] value = edit.value().getBytes(StandardCharsets.UTF_8);
+                    ops.writeByte(PUT);
+                    writeVarint(ops, zigZag(edit.key()));
+                    writeVarint(ops, value.length);
+                    ops.write(value);
+                }
+                case REMOVE -> {
+                    ops.writeByte(REMOVE);
+                    writeVarint(ops, zigZag(edit.key()));
+                }
+                case SWAP -> {
+                    ops.writeByte(SWAP);
+                    writeVarint(ops, zigZag(edit.key()));
+                    writeVarint(ops, zigZag(edit.otherKey()));
+                }
+                default -> throw new IllegalArgumentException("Whole-table edits need a full save.");
+            }
+        }
+        byte[] bytes = payload.toByteArray();
+        CRC32C crc = new CRC32C();
+        crc.update(bytes);
+        Path journal = journalFor(base);
+        synchronized (LOCK) {
+            boolean fresh = !Files.exists(journal) || !belongsTo(journal, base);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(journal.toFile(), !fresh), 1 << 16))) {
+                if (fresh) writeHeader(out, base);
+                out.writeInt(bytes.length);
+                out.writeInt((int) crc.getValue());
+                out.write(bytes);
+            }
+            return Files.size(journal);
+        }
+    }
+
+    /**
+     * Apply the journal for this base, if any, to records just read from the base.
+     * @param report - receives a note about stale journals or a torn final commit
+     * @return - number of edits applied
+     */
+    static long replay(Path base, IntRecordMap<String> records, Consumer<String> report) throws IOException {
+        Path journal = journalFor(base);
+        if (!Files.exists(journal)) return 0;
+        byte[] data = Files.readAllBytes(journal);
+        ByteBuffer in = ByteBuffer.wrap(data);
+        if (data.length < HEADER_SIZE || !matchesBase(in, base)) {
+            report.accept("Ignored " + journal.getFileName() + ": it does not belong to the current " + base.getFileName());
+            return 0;
+        }
+        long applied = 0;
+        CRC32C crc = new CRC32C();
+        while (in.remaining() >= 8) {
+            int commitStart = in.position();
+            int length = in.getInt();
+            int checksum = in.getInt();
+            if (length < 0 || length > in.remaining()) {
+                in.position(commitStart);
+                break;
+            }
+            crc.reset();
+            crc.update(data, in.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                in.position(commitStart);
+                break;
+            }
+            int payloadStart = in.position();
+            ByteBuffer ops = in.slice().limit(length);
+            in.position(payloadStart + length);
+            while (ops.hasRemaining()) {
+                byte op = ops.get();
+                int key = unZigZag(readVarint(ops));
+                switch (op) {
+                    case PUT -> {
+                        int valueLength = readVarint(ops);
+                        if (valueLength > ops.remaining()) throw new IOException("Corrupt journal entry.");
+                        records.put(key, new String(data, payloadStart + ops.position(), valueLength,
+                                StandardCharsets.UTF_8));
+                        ops.position(ops.position() + valueLength);
+                    }
+                    case REMOVE -> records.remove(key);
+                    case SWAP -> {
+                        int otherKey = unZigZag(readVarint(ops));
+                        String temp = records.get(key);
+                        records.put(key, records.get(otherKey));
+                        records.put(otherKey, temp);
+                    }
+                    default -> throw new IOException("Unknown journal operation " + op + " in " + journal);
+                }
+                applied++;
+            }
+        }
+        if (in.hasRemaining()) {
+            report.accept("Ignored " + in.remaining() + " bytes of an incomplete final save in " + journal.getFileName());
+        }
+        return applied;
+    }
+
+    static void delete(Path base) throws IOException {
+        synchronized (LOCK) {
+            Files.deleteIfExists(journalFor(base));
+        }
+    }
+
+    /**
+     * Fold base + journal into a new base on a background thread. The old base is kept as a version
+     * and the new one is moved into place atomically before the journal is removed.
+     * @param manifest - where to record the old base in the version store
+     * @param report - receives the outcome, from the compaction thread
+     */
+    static void compactInBackground(Path base, VersionStore versions, VersionCatalog catalog, Path manifest,
+                                    Consumer<String> report) {
+        compactor.execute(() -> {
+            synchronized (LOCK) {
+                try {
+                    IntRecordMap<String> records = FileTableMaker.newRecords();
+                    FileTableMaker.readTable(base, records);
+                    replay(base, records, report);
+                    catalog.versioned(base, manifest, versions.store(base, manifest).bytes());
+                    BackgroundWriter.replace(base,
+                            temp -> FileTableMaker.writeTable(temp, records, BinaryTableFormat.isBinaryName(base.toString())));
+                    Files.deleteIfExists(journalFor(base));
+                    catalog.saved(base, records.size());
+                    report.accept("Journal compacted into " + base + " (" + records.size() + " records).");
+                } catch (IOException | RuntimeException e) {
+                    report.accept("Journal compaction failed: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /** Let a running compaction finish before the program exits. */
+    static void awaitCompaction() {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.HOURS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean belongsTo(Path journal, Path base) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        try (InputStream in = Files.newInputStream(journal)) {
+            if (in.readNBytes(header, 0, HEADER_SIZE) < HEADER_SIZE) return false;
+        }
+        return matchesBase(ByteBuffer.wrap(header), base);
+    }
+
+    private static void writeHeader(DataOutputStream out, Path base) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(base, BasicFileAttributes.class);
+        out.write(MAGIC);
+        out.writeInt(1);
+        out.writeLong(attributes.size());
+        out.writeLong(attributes.lastModifiedTime().toMillis());
+    }
+
+    private static boolean matchesBase(ByteBuffer in, Path base) throws IOException {
+        for (byte b : MAGIC) {
+            if (in.get() != b) return false;
+        }
+        if (in.getInt() != 1) return false;
+        BasicFileAttributes attributes = Files.readAttributes(base, BasicFileAttributes.class);
+        return in.getLong() == attributes.size() && in.getLong() == attributes.lastModifiedTime().toMillis();
+    }
+
+    private static int zigZag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    private static int unZigZag(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35 && in.hasRemaining(); shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IOException("Corrupt journal entry.");
+    }
+}
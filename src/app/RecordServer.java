@@ -0,0 +1,190 @@
+package app;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves one table to several clients over TCP on the loopback interface:
+ * {@code java -cp out app.FileTableMaker --server [port] [file]}. Each line a client sends is one command,
+ * as in batch mode plus "get <key>" and "size"; the reply is the command's output followed by a line
+ * "OK" or "ERR <message>". Every connection has its own thread and its own undo history, which undoes
+ * that client's edits even if another client has changed the same record since.
+ * Records live in a {@link StripedRecordStore}, so clients editing different records do not wait for each other.
+ */
+class RecordServer implements Closeable {
+    static final int DEFAULT_PORT = 7070;
+    static final int STRIPES = (int) Math.max(1, Settings.number("server.stripes", 64));
+
+    private final StripedRecordStore store;
+    private final ServerSocket listener;
+    private final ExecutorService connections = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "ftm-connection");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Set<Socket> open = ConcurrentHashMap.newKeySet();
+    private final Object saveLock = new Object();
+
+    /** @param port - port to listen on, or 0 for any free port */
+    RecordServer(int port, StripedRecordStore store) throws IOException {
+        this.store = store;
+        this.listener = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+    }
+
+    static void run(String[] args) {
+        StripedRecordStore store = new StripedRecordStore(STRIPES);
+        try (RecordServer server = new RecordServer(
+                args.length > 1 ? BatchScript.intArg(args[1], "port") : DEFAULT_PORT, store)) {
+            if (args.length > 2) {
+                IntRecordMap<String> loaded = new IntRecordMap<>();
+                FileTableMaker.readSavedTable(Path.of(args[2]), loaded, System.out::println);
+                store.replace(loaded);
+            }
+            System.out.println("Serving " + store.size() + " records on port " + server.port()
+                    + " (" + STRIPES + " stripes). Stop with Ctrl+C; clients save with \"save <file>\".");
+            server.serve();
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Server failed: " + e.getMessage());
+        }
+    }
+
+    int port() {
+        return listener.getLocalPort();
+    }
+
+    /** Accept connections until the server is closed, each served on its own thread. */
+    void serve() {
+        while (!listener.isClosed()) {
+            try {
+                Socket socket = listener.accept();
+                open.add(socket);
+                connections.execute(() -> session(socket));
+            } catch (IOException e) {
+                if (!listener.isClosed()) System.out.println("Accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        listener.close();
+        for (Socket socket : open) socket.close();
+        connections.shutdownNow();
+    }
+
+    private void session(Socket socket) {
+        Session session = new Session();
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new BufferedWriter(
+                     new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)))) {
+            socket.setTcpNoDelay(true);
+            String line;
+            while ((line = in.readLine()) != null) {
+                String trimmed = line.trim();
+                if (trimmed.isEmpty()) continue;
+                String[] parts = BatchScript.splitFirst(trimmed);
+                String command = parts[0].toLowerCase();
+                if (command.equals("quit")) {
+                    out.println("OK");
+                    break;
+                }
+                try {
+                    boolean known = session.execute(command, parts[1], out);
+                    out.println(known ? "OK" : "ERR unknown command '" + command + "'");
+                } catch (Exception e) {
+                    out.println("ERR " + e.getMessage());
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // the client went away or the server is closing
+        } finally {
+            open.remove(socket);
+        }
+    }
+
+    /** One client's view of the table: its commands and its own undo history. */
+    private class Session {
+        private final Deque<RecordEdit> undoStack = new ArrayDeque<>();
+        private final Deque<RecordEdit> redoStack = new ArrayDeque<>();
+
+        boolean execute(String command, String argument, PrintWriter out) throws IOException {
+            switch (command) {
+                case "get" -> {
+                    int key = BatchScript.intArg(argument, "key");
+                    out.println(key + ": " + required(key, store.get(key)));
+                }
+                case "size" -> out.println(store.size());
+                case "add" -> {
+                    int key = store.add(argument);
+                    recorded(RecordEdit.remove(key));
+                    out.println(key);
+                }
+                case "update" -> {
+                    String[] parts = BatchScript.splitFirst(argument);
+                    int key = BatchScript.intArg(parts[0], "key");
+                    recorded(RecordEdit.put(key, required(key, store.update(key, parts[1]))));
+                }
+                case "delete" -> {
+                    int key = BatchScript.intArg(argument, "key");
+                    recorded(RecordEdit.put(key, required(key, store.remove(key))));
+                }
+                case "swap", "move" -> {
+                    String[] parts = BatchScript.splitFirst(argument);
+                    recorded(store.apply(RecordEdit.swap(BatchScript.intArg(parts[0], "key"),
+                            BatchScript.intArg(parts[1], "key"))));
+                }
+                case "clear" -> recorded(store.apply(RecordEdit.replace(new IntRecordMap<>())));
+                case "undo" -> move(undoStack, redoStack, "Nothing to undo.");
+                case "redo" -> move(redoStack, undoStack, "Nothing to redo.");
+                case "view", "head", "tail", "range" -> PagedOutput.batchView(command, argument, store.size(),
+                        (from, to, o) -> store.forEachInRange(from, to - from, (key, value) -> o.println(key + ": " + value)), out);
+                case "save" -> {
+                    synchronized (saveLock) {
+                        FileTableMaker.saveTable(argument, store.snapshot(), out::println);
+                    }
+                }
+                case "load" -> {
+                    if (!Files.exists(Path.of(argument))) throw new FileNotFoundException(argument);
+                    IntRecordMap<String> loaded = new IntRecordMap<>();
+                    FileTableMaker.readSavedTable(Path.of(argument), loaded, out::println);
+                    recorded(store.apply(RecordEdit.replace(loaded)));
+                    out.println("Records loaded from " + argument + " (" + loaded.size() + " records)");
+                }
+                default -> {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void recorded(RecordEdit inverse) {
+            undoStack.push(inverse);
+            redoStack.clear();
+        }
+
+        /** Apply the top edit of one stack and push its inverse on the other; a failed edit stays where it was. */
+        private void move(Deque<RecordEdit> from, Deque<RecordEdit> to, String emptyMessage) {
+            if (from.isEmpty()) throw new IllegalStateException(emptyMessage);
+            to.push(store.apply(from.peek()));
+            from.pop();
+        }
+
+        private String required(int key, String value) {
+            if (value == null) throw new IllegalArgumentException("Record " + key + " not found.");
+            return value;
+        }
+    }
+}
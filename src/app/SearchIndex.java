@@ -0,0 +1,431 @@
+package app;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Inverted index for finding records or list items by their text without reading every one of them.
+ * Words (runs of letters and digits) go in a sorted map for word-prefix queries, and every three-character
+ * sequence of the lower-cased text goes in a hash table for substring queries: a document containing the query
+ * must hold all of the query's trigrams, so only documents in the smallest posting set are checked against
+ * the query. Substring queries under three characters have no trigram and scan the documents instead.
+ * Documents are split across shards by id, so a rebuild fills every shard on its own thread.
+ */
+class SearchIndex {
+    /** The documents being indexed, identified by int ids. */
+    interface Source {
+        /** Visit every document; called from several threads at once during a rebuild. */
+        void forEach(IntRecordMap.EntryConsumer<String> action);
+
+        String text(int id);
+    }
+
+    private static final class Shard {
+        TrigramTable trigrams = new TrigramTable();
+        TreeMap<String, Postings> words = new TreeMap<>();
+    }
+
+    private final Source source;
+    private final Shard[] shards;
+
+    /** Index every document of the source, on -Dftm.load.threads threads. */
+    SearchIndex(Source source) {
+        this.source = source;
+        this.shards = new Shard[ParallelLoader.THREADS];
+        for (int s = 0; s < shards.length; s++) shards[s] = new Shard();
+        rebuild();
+    }
+
+    void add(int id, String text) {
+        Shard shard = shardOf(id);
+        index(shard.trigrams, shard.words, id, text, true);
+    }
+
+    void remove(int id, String text) {
+        Shard shard = shardOf(id);
+        index(shard.trigrams, shard.words, id, text, false);
+    }
+
+    /** Forget the index and build it again from the source, one task per shard. */
+    void rebuild() {
+        if (shards.length == 1) {
+            fill(shards[0]);
+            return;
+        }
+        List<CompletableFuture<Void>> tasks = new ArrayList<>(shards.length);
+        for (Shard shard : shards) tasks.add(CompletableFuture.runAsync(() -> fill(shard), ParallelLoader.pool()));
+        try {
+            for (CompletableFuture<Void> task : tasks) task.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw e;
+        }
+    }
+
+    /** Index the shard's documents; words are gathered in a hash map and sorted once at the end. */
+    private void fill(Shard shard) {
+        TrigramTable trigrams = new TrigramTable();
+        HashMap<String, Postings> words = new HashMap<>();
+        source.forEach((id, text) -> {
+            if (shardOf(id) == shard) index(trigrams, words, id, text, true);
+        });
+        shard.trigrams = trigrams;
+        shard.words = new TreeMap<>(words);
+    }
+
+    /**
+     * @param query - text to find anywhere in a document, ignoring case, or "^" followed by words
+     *              that must each begin a word of the document
+     * @return - ids of the matching documents, ascending
+     */
+    int[] find(String query) {
+        return query.startsWith("^") ? wordsStarting(query.substring(1)) : containing(query);
+    }
+
+    private int[] containing(String query) {
+        String needle = lower(query);
+        IntStream.Builder matches = IntStream.builder();
+        if (needle.length() < 3) {
+            source.forEach((id, text) -> {
+                if (lower(text).contains(needle)) matches.add(id);
+            });
+            return matches.build().sorted().toArray();
+        }
+        for (Shard shard : shards) {
+            List<Postings> sets = new ArrayList<>();
+            for (int i = 0; i + 3 <= needle.length() && sets != null; i++) {
+                Postings postings = shard.trigrams.get(trigram(needle, i), false);
+                if (postings == null) sets = null;
+                else sets.add(postings);
+            }
+            if (sets == null) continue;
+            intersect(sets, id -> {
+                if (lower(source.text(id)).contains(needle)) matches.add(id);
+            });
+        }
+        return matches.build().sorted().toArray();
+    }
+
+    private int[] wordsStarting(String query) {
+        List<String> prefixes = words(lower(query));
+        if (prefixes.isEmpty()) return new int[0];
+        IntStream.Builder matches = IntStream.builder();
+        for (Shard shard : shards) {
+            List<Postings> sets = new ArrayList<>(prefixes.size());
+            for (String prefix : prefixes) {
+                Postings union = new Postings();
+                for (Map.Entry<String, Postings> word : shard.words.tailMap(prefix, true).entrySet()) {
+                    if (!word.getKey().startsWith(prefix)) break;
+                    word.getValue().forEach(union::add);
+                }
+                sets.add(union);
+            }
+            intersect(sets, matches::add);
+        }
+        return matches.build().sorted().toArray();
+    }
+
+    /** Walk the smallest set, passing on the ids that every other set holds too. */
+    private static void intersect(List<Postings> sets, IntConsumer action) {
+        sets.sort(Comparator.comparingInt(Postings::size));
+        List<Postings> others = sets.subList(1, sets.size());
+        sets.get(0).forEach(id -> {
+            for (Postings other : others) {
+                if (!other.contains(id)) return;
+            }
+            action.accept(id);
+        });
+    }
+
+    private Shard shardOf(int id) {
+        return shards[Math.floorMod(id, shards.length)];
+    }
+
+    /** Add a document's trigrams and words to a shard's maps, or take them out again. */
+    private static void index(TrigramTable trigrams, Map<String, Postings> words, int id, String text, boolean add) {
+        String lower = lower(text);
+        for (int i = 0; i + 3 <= lower.length(); i++) {
+            long trigram = trigram(lower, i);
+            if (add) {
+                trigrams.get(trigram, true).add(id);
+            } else {
+                Postings postings = trigrams.get(trigram, false);
+                if (postings != null && postings.remove(id) && postings.size() == 0) trigrams.remove(trigram);
+            }
+        }
+        for (String word : words(lower)) {
+            if (add) {
+                words.computeIfAbsent(word, k -> new Postings()).add(id);
+            } else {
+                Postings postings = words.get(word);
+                if (postings != null && postings.remove(id) && postings.size() == 0) words.remove(word);
+            }
+        }
+    }
+
+    private static String lower(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The three characters packed into a long, times an odd constant: still one key per trigram,
+     * but with every character affecting the low bits the table hashes on.
+     */
+    private static long trigram(String text, int at) {
+        return ((long) text.charAt(at) << 32 | (long) text.charAt(at + 1) << 16 | text.charAt(at + 2)) * 0x9E3779B97F4A7C15L;
+    }
+
+    private static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(text.substring(start, i));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Trigram to posting set, with the trigrams unboxed in a long array; open addressing like
+     * {@link IntRecordMap}, a null value marking a free slot.
+     */
+    private static final class TrigramTable {
+        private long[] keys = new long[16];
+        private Postings[] values = new Postings[16];
+        private int size;
+
+        /** @param create - add an empty posting set if the trigram has none, instead of returning null */
+        Postings get(long trigram, boolean create) {
+            int mask = keys.length - 1;
+            int i = home(trigram, mask);
+            for (; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == trigram) return values[i];
+            }
+            if (!create) return null;
+            if ((size + 1) * 4 > keys.length * 3) {
+                resize(keys.length * 2);
+                return get(trigram, true);
+            }
+            keys[i] = trigram;
+            size++;
+            return values[i] = new Postings();
+        }
+
+        void remove(long trigram) {
+            int mask = keys.length - 1;
+            for (int i = home(trigram, mask); values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == trigram) {
+                    int hole = i;
+                    for (int next = (hole + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+                        if (((next - home(keys[next], mask)) & mask) >= ((next - hole) & mask)) {
+                            keys[hole] = keys[next];
+                            values[hole] = values[next];
+                            hole = next;
+                        }
+                    }
+                    values[hole] = null;
+                    size--;
+                    return;
+                }
+            }
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            Postings[] oldValues = values;
+            keys = new long[capacity];
+            values = new Postings[capacity];
+            int mask = capacity - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldValues[j] == null) continue;
+                int i = home(oldKeys[j], mask);
+                while (values[i] != null) i = (i + 1) & mask;
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+
+        /** The key is already mixed by {@link #trigram}; fold its halves together. */
+        private static int home(long key, int mask) {
+            return (int) (key ^ (key >>> 32)) & mask;
+        }
+    }
+
+    /**
+     * A set of document ids. Ids start out in a small open-addressing int table (0 marks a free slot, id 0
+     * itself is a flag). Once the ids are dense, as record keys and item numbers usually are, the non-negative
+     * ones move to a bitmap, which costs at most 4 bytes per id and is filled and read in order instead of at
+     * scattered slots. Every non-negative id below the bitmap's end lives in the bitmap, never the table.
+     */
+    private static final class Postings {
+        private static final int MIN_BITMAP_IDS = 64;
+
+        private int[] slots = new int[2];
+        private int count; // ids in slots
+        private boolean hasZero;
+        private int maxId; // largest id ever added, to judge when a bitmap would pay off
+        private long[] bits; // null until the set is dense
+        private int bitCount;
+
+        int size() {
+            return count + bitCount + (hasZero ? 1 : 0);
+        }
+
+        boolean contains(int id) {
+            if (inBitmap(id)) return (bits[id >>> 6] & 1L << id) != 0;
+            if (id == 0) return hasZero;
+            int mask = slots.length - 1;
+            for (int i = home(id, mask); slots[i] != 0; i = (i + 1) & mask) {
+                if (slots[i] == id) return true;
+            }
+            return false;
+        }
+
+        void add(int id) {
+            maxId = Math.max(maxId, id);
+            if (bits != null && id >= 0 && (inBitmap(id) || growBitmap(id))) {
+                long bit = 1L << id;
+                if ((bits[id >>> 6] & bit) == 0) {
+                    bits[id >>> 6] |= bit;
+                    bitCount++;
+                }
+                return;
+            }
+            addToTable(id);
+            if (bits == null && size() >= MIN_BITMAP_IDS && maxId / 64L + 1 <= bitmapWordLimit()) {
+                bits = new long[maxId / 64 + 1];
+                moveToBitmap();
+            }
+        }
+
+        /** @return - whether the id was present */
+        boolean remove(int id) {
+            if (inBitmap(id)) {
+                long bit = 1L << id;
+                if ((bits[id >>> 6] & bit) == 0) return false;
+                bits[id >>> 6] &= ~bit;
+                bitCount--;
+                return true;
+            }
+            if (id == 0) {
+                boolean had = hasZero;
+                hasZero = false;
+                return had;
+            }
+            int mask = slots.length - 1;
+            for (int i = home(id, mask); slots[i] != 0; i = (i + 1) & mask) {
+                if (slots[i] == id) {
+                    deleteSlot(i, mask);
+                    count--;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void forEach(IntConsumer action) {
+            if (bits != null) {
+                for (int word = 0; word < bits.length; word++) {
+                    for (long w = bits[word]; w != 0; w &= w - 1) {
+                        action.accept(word << 6 | Long.numberOfTrailingZeros(w));
+                    }
+                }
+            }
+            if (hasZero) action.accept(0);
+            for (int id : slots) {
+                if (id != 0) action.accept(id);
+            }
+        }
+
+        private boolean inBitmap(int id) {
+            return bits != null && id >= 0 && id >>> 6 < bits.length;
+        }
+
+        /** Words the bitmap may have: no more than 4 bytes per id, as in the table. */
+        private long bitmapWordLimit() {
+            return (size() + 1) / 2;
+        }
+
+        /** Extend the bitmap to cover the id if it stays within its size limit. @return - whether it does */
+        private boolean growBitmap(int id) {
+            long limit = bitmapWordLimit();
+            if (id >>> 6 >= limit) return false;
+            bits = Arrays.copyOf(bits, (int) Math.min(limit, Math.max(id / 64L + 1, bits.length * 2L)));
+            moveToBitmap();
+            return true;
+        }
+
+        /** Move table ids that the bitmap now covers into it. */
+        private void moveToBitmap() {
+            int[] old = slots;
+            slots = new int[2];
+            count = 0;
+            if (hasZero) {
+                hasZero = false;
+                bits[0] |= 1;
+                bitCount++;
+            }
+            for (int id : old) {
+                if (id == 0) continue;
+                if (inBitmap(id)) {
+                    bits[id >>> 6] |= 1L << id;
+                    bitCount++;
+                } else {
+                    addToTable(id);
+                }
+            }
+        }
+
+        private void addToTable(int id) {
+            if (id == 0) {
+                hasZero = true;
+                return;
+            }
+            if ((count + 1) * 4 > slots.length * 3) resize(slots.length * 2);
+            int mask = slots.length - 1;
+            int i = home(id, mask);
+            for (; slots[i] != 0; i = (i + 1) & mask) {
+                if (slots[i] == id) return;
+            }
+            slots[i] = id;
+            count++;
+        }
+
+        /** Backward-shift deletion, as in {@link IntRecordMap}, so probe chains need no tombstones. */
+        private void deleteSlot(int index, int mask) {
+            int hole = index;
+            for (int next = (hole + 1) & mask; slots[next] != 0; next = (next + 1) & mask) {
+                if (((next - home(slots[next], mask)) & mask) >= ((next - hole) & mask)) {
+                    slots[hole] = slots[next];
+                    hole = next;
+                }
+            }
+            slots[hole] = 0;
+        }
+
+        private void resize(int capacity) {
+            int[] old = slots;
+            slots = new int[capacity];
+            int mask = capacity - 1;
+            for (int id : old) {
+                if (id == 0) continue;
+                int i = home(id, mask);
+                while (slots[i] != 0) i = (i + 1) & mask;
+                slots[i] = id;
+            }
+        }
+
+        private static int home(int id, int mask) {
+            int h = id * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+    }
+}
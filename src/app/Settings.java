@@ -0,0 +1,27 @@
+package app;
+
+/**
+ * Tunables read from -Dftm.* system properties, e.g. {@code java -Dftm.journal=true -cp out app.FileTableMaker}.
+ * Unset or unparsable values fall back to the default.
+ */
+class Settings {
+    static boolean flag(String name, boolean defaultValue) {
+        String value = System.getProperty("ftm." + name);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    static long number(String name, long defaultValue) {
+        String value = System.getProperty("ftm." + name);
+        if (value == null) return defaultValue;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    static String text(String name, String defaultValue) {
+        String value = System.getProperty("ftm." + name);
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+}
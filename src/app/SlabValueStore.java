@@ -0,0 +1,146 @@
+package app;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Reference-counted intern table for a deduplicated off-heap {@link IntRecordMap}, the counterpart of
+ * {@link ValueStore}: equal values share one copy in the {@link TextSlabs}, and the heap holds only a
+ * handle, a hash and a count per distinct value. Values are compared by their UTF-8 bytes in the slabs.
+ */
+class SlabValueStore {
+    private long[] handles; // open addressing by content hash; 0 when empty
+    private int[] hashes;
+    private int[] counts;
+    private int size;
+    private long bytes;                // slab space of the distinct values held
+    private volatile long savedBytes;  // written by the owner's thread, read by metrics
+
+    SlabValueStore(int expectedSize) {
+        allocate(Math.max(16, Integer.highestOneBit(Math.max(1, expectedSize + expectedSize / 3)) << 1));
+    }
+
+    /** @return - the handle to store: that of an equal value already held, or of this one, added to text */
+    long acquire(TextSlabs text, ByteBuffer utf8, int offset, int length) {
+        int hash = TextSlabs.hash(utf8, offset, length);
+        int mask = handles.length - 1;
+        for (int index = indexFor(hash); handles[index] != 0; index = (index + 1) & mask) {
+            if (hashes[index] == hash && text.contentEquals(handles[index], utf8, offset, length)) {
+                counts[index]++;
+                savedBytes += TextSlabs.size(length);
+                return handles[index];
+            }
+        }
+        long handle = text.add(utf8, offset, length);
+        insert(handle, hash);
+        bytes += TextSlabs.size(length);
+        return handle;
+    }
+
+    /** Count one more entry holding a value already in the slabs, e.g. when a snapshot builds its own table. */
+    void acquire(TextSlabs text, long handle) {
+        int hash = text.hash(handle);
+        int index = find(handle, hash);
+        if (index >= 0) {
+            counts[index]++;
+            savedBytes += TextSlabs.size(text.length(handle));
+        } else {
+            insert(handle, hash);
+            bytes += TextSlabs.size(text.length(handle));
+        }
+    }
+
+    /** @return - true if that was the last entry holding the value, so its slab space is garbage */
+    boolean release(TextSlabs text, long handle) {
+        int index = find(handle, text.hash(handle));
+        if (index < 0) return false;
+        long size = TextSlabs.size(text.length(handle));
+        if (--counts[index] > 0) {
+            savedBytes -= size;
+            return false;
+        }
+        bytes -= size;
+        delete(index);
+        return true;
+    }
+
+    /** The values were copied to new slabs: replace each handle by its copy's, from old to new. */
+    void moved(Map<Long, Long> copies) {
+        for (int i = 0; i < handles.length; i++) {
+            if (handles[i] != 0) handles[i] = copies.get(handles[i]);
+        }
+    }
+
+    /** @return - slab space of the distinct values held */
+    long bytes() {
+        return bytes;
+    }
+
+    /** @return - slab space the repeated values would take as separate copies */
+    long savedBytes() {
+        return savedBytes;
+    }
+
+    private int find(long handle, int hash) {
+        int mask = handles.length - 1;
+        for (int index = indexFor(hash); handles[index] != 0; index = (index + 1) & mask) {
+            if (handles[index] == handle) return index;
+        }
+        return -1;
+    }
+
+    private void insert(long handle, int hash) {
+        if (size + 1 > (handles.length >> 2) * 3) grow();
+        int mask = handles.length - 1;
+        int index = indexFor(hash);
+        while (handles[index] != 0) index = (index + 1) & mask;
+        handles[index] = handle;
+        hashes[index] = hash;
+        counts[index] = 1;
+        size++;
+    }
+
+    /** Backward-shift deletion, as in {@link IntRecordMap}, so probe chains need no tombstones. */
+    private void delete(int index) {
+        int mask = handles.length - 1;
+        int hole = index;
+        for (int next = (hole + 1) & mask; handles[next] != 0; next = (next + 1) & mask) {
+            int home = indexFor(hashes[next]);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                handles[hole] = handles[next];
+                hashes[hole] = hashes[next];
+                counts[hole] = counts[next];
+                hole = next;
+            }
+        }
+        handles[hole] = 0;
+        size--;
+    }
+
+    private void grow() {
+        long[] oldHandles = handles;
+        int[] oldHashes = hashes;
+        int[] oldCounts = counts;
+        allocate(oldHandles.length * 2);
+        int mask = handles.length - 1;
+        for (int i = 0; i < oldHandles.length; i++) {
+            if (oldHandles[i] == 0) continue;
+            int index = indexFor(oldHashes[i]);
+            while (handles[index] != 0) index = (index + 1) & mask;
+            handles[index] = oldHandles[i];
+            hashes[index] = oldHashes[i];
+            counts[index] = oldCounts[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        handles = new long[capacity];
+        hashes = new int[capacity];
+        counts = new int[capacity];
+    }
+
+    private int indexFor(int hash) {
+        int h = hash * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (handles.length - 1);
+    }
+}
@@ -0,0 +1,277 @@
+package app;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The records of a table served to several clients, split by key into stripes that each have their own
+ * {@link IntRecordMap} and lock, so edits to records in different stripes run in parallel.
+ * Changing a record's value locks only its stripe. Adding or removing a record also takes the key lock,
+ * which keeps the lowest-free-key allocator exact; whole-table operations take every lock, but only for
+ * as long as it takes to share or swap out the stripes' pages. Locks are always taken in the same order
+ * (the key lock, then stripes by index), so no two operations deadlock.
+ * The order the records were added in is kept apart from the stripes, as a map of keys written only under
+ * the key lock, so saves and views list the records in that order, as the menu app does.
+ */
+class StripedRecordStore {
+    /** Largest view window read under the key lock rather than from a snapshot. */
+    private static final int LOCKED_WINDOW = 4096;
+
+    private final IntRecordMap<String>[] stripes;
+    private final ReentrantLock[] locks;
+    private final ReentrantLock keyLock = new ReentrantLock();
+    private final FreeKeyAllocator freeKeys = new FreeKeyAllocator();
+    private IntRecordMap<Boolean> order = new IntRecordMap<>(); // every key in insertion order; under the key lock
+    private volatile int size; // written under the key lock
+
+    StripedRecordStore(int stripeCount) {
+        stripes = newStripes(stripeCount);
+        locks = new ReentrantLock[stripeCount];
+        for (int s = 0; s < stripeCount; s++) {
+            stripes[s] = new IntRecordMap<>();
+            locks[s] = new ReentrantLock();
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** @return - the record's value, or null if there is no such record */
+    String get(int key) {
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            return stripeFor(key).get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Store a value under the lowest free key. @return - the key */
+    int add(String value) {
+        keyLock.lock();
+        try {
+            int key = freeKeys.lowestFreeKey(this::containsKey);
+            insert(key, value);
+            return key;
+        } finally {
+            keyLock.unlock();
+        }
+    }
+
+    /** Replace an existing record's value. @return - the previous value, or null if there is no such record */
+    String update(int key, String value) {
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            IntRecordMap<String> stripe = stripeFor(key);
+            return stripe.containsKey(key) ? stripe.put(key, value) : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Insert or replace a record. @return - the previous value, or null if the record is new */
+    String put(int key, String value) {
+        String previous = update(key, value);
+        if (previous != null) return previous;
+        keyLock.lock();
+        try {
+            return insert(key, value); // it may have been added since update() looked
+        } finally {
+            keyLock.unlock();
+        }
+    }
+
+    /** @return - the removed value, or null if there was no such record */
+    String remove(int key) {
+        keyLock.lock();
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            String removed = stripeFor(key).remove(key);
+            if (removed != null) {
+                freeKeys.keyRemoved(key);
+                order.remove(key);
+                size--;
+            }
+            return removed;
+        } finally {
+            lock.unlock();
+            keyLock.unlock();
+        }
+    }
+
+    /** Exchange the values of two records. @return - false, changing nothing, if either record is missing */
+    boolean swap(int key, int otherKey) {
+        int first = Math.min(stripeIndex(key), stripeIndex(otherKey));
+        int second = Math.max(stripeIndex(key), stripeIndex(otherKey));
+        locks[first].lock();
+        locks[second].lock();
+        try {
+            String value = stripeFor(key).get(key);
+            String otherValue = stripeFor(otherKey).get(otherKey);
+            if (value == null || otherValue == null) return false;
+            stripeFor(key).put(key, otherValue);
+            stripeFor(otherKey).put(otherKey, value);
+            return true;
+        } finally {
+            locks[second].unlock();
+            locks[first].unlock();
+        }
+    }
+
+    /**
+     * Swap in a whole table. The new stripes and order are filled before any lock is taken, so the locks are
+     * held only to exchange them for the current ones.
+     * @return - the previous records, in insertion order
+     */
+    IntRecordMap<String> replace(IntRecordMap<String> records) {
+        IntRecordMap<String>[] filled = newStripes(stripes.length);
+        for (int s = 0; s < filled.length; s++) filled[s] = new IntRecordMap<>();
+        IntRecordMap<Boolean> filledOrder = new IntRecordMap<>(records.size());
+        records.forEach((key, value) -> {
+            filled[stripeIndex(key)].put(key, value);
+            filledOrder.put(key, Boolean.TRUE);
+        });
+        IntRecordMap<String>[] previous = newStripes(stripes.length);
+        IntRecordMap<Boolean> previousOrder;
+        lockAll();
+        try {
+            for (int s = 0; s < stripes.length; s++) {
+                previous[s] = stripes[s];
+                stripes[s] = filled[s];
+            }
+            previousOrder = order;
+            order = filledOrder;
+            freeKeys.clear();
+            size = records.size();
+        } finally {
+            unlockAll();
+        }
+        return merged(previousOrder, previous);
+    }
+
+    /**
+     * A consistent copy of every record, in insertion order. Writers are held up only while the order and
+     * each stripe share their pages with an {@link IntRecordMap#snapshot()}; the copies are merged, without
+     * sorting, after the locks are released.
+     */
+    IntRecordMap<String> snapshot() {
+        IntRecordMap<String>[] copies = newStripes(stripes.length);
+        IntRecordMap<Boolean> orderCopy;
+        lockAll();
+        try {
+            orderCopy = order.snapshot();
+            for (int s = 0; s < stripes.length; s++) copies[s] = stripes[s].snapshot();
+        } finally {
+            unlockAll();
+        }
+        return merged(orderCopy, copies);
+    }
+
+    /**
+     * Visit count records starting at the given position in insertion order. A window of up to
+     * LOCKED_WINDOW records is read under the key lock, which holds up adds and removes but not updates,
+     * so its cost is proportional to the window; a larger one is read from a {@link #snapshot()}.
+     * The records are handed to the action after the locks are released.
+     */
+    void forEachInRange(int from, int count, IntRecordMap.EntryConsumer<String> action) {
+        if (count > LOCKED_WINDOW) {
+            snapshot().forEachInRange(from, count, action);
+            return;
+        }
+        int[] keys = new int[Math.max(0, count)];
+        String[] values = new String[keys.length];
+        int[] found = new int[1];
+        keyLock.lock();
+        try {
+            order.forEachInRange(from, count, (key, ignored) -> {
+                keys[found[0]] = key;
+                values[found[0]++] = get(key); // removes wait for the key lock, so it is still there
+            });
+        } finally {
+            keyLock.unlock();
+        }
+        for (int i = 0; i < found[0]; i++) action.accept(keys[i], values[i]);
+    }
+
+    /** Apply an edit as {@link FileTableMaker} does and return the edit that reverses it. */
+    RecordEdit apply(RecordEdit edit) {
+        switch (edit.kind()) {
+            case PUT -> {
+                String previous = put(edit.key(), edit.value());
+                return previous == null ? RecordEdit.remove(edit.key()) : RecordEdit.put(edit.key(), previous);
+            }
+            case REMOVE -> {
+                String removed = remove(edit.key());
+                if (removed == null) throw new IllegalArgumentException("Record " + edit.key() + " not found.");
+                return RecordEdit.put(edit.key(), removed);
+            }
+            case SWAP -> {
+                if (!swap(edit.key(), edit.otherKey())) {
+                    throw new IllegalArgumentException("Record " + edit.key() + " or " + edit.otherKey() + " not found.");
+                }
+                return edit;
+            }
+            default -> {
+                return RecordEdit.replace(replace(edit.records()));
+            }
+        }
+    }
+
+    /** Insert a record that may be new; the caller holds the key lock. */
+    private String insert(int key, String value) {
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            String previous = stripeFor(key).put(key, value);
+            if (previous == null) {
+                freeKeys.keyAdded(key);
+                order.put(key, Boolean.TRUE);
+                size++;
+            }
+            return previous;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /** Merge per-stripe maps, which no other thread can reach any more, into one map in the given key order. */
+    private static IntRecordMap<String> merged(IntRecordMap<Boolean> order, IntRecordMap<String>[] parts) {
+        IntRecordMap<String> merged = new IntRecordMap<>(order.size());
+        order.forEach((key, ignored) -> merged.put(key, parts[Math.floorMod(key, parts.length)].get(key)));
+        return merged;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static IntRecordMap<String>[] newStripes(int count) {
+        return new IntRecordMap[count];
+    }
+
+    private void lockAll() {
+        keyLock.lock();
+        for (ReentrantLock lock : locks) lock.lock();
+    }
+
+    private void unlockAll() {
+        for (int s = locks.length - 1; s >= 0; s--) locks[s].unlock();
+        keyLock.unlock();
+    }
+
+    private int stripeIndex(int key) {
+        return Math.floorMod(key, stripes.length);
+    }
+
+    private IntRecordMap<String> stripeFor(int key) {
+        return stripes[stripeIndex(key)];
+    }
+
+    private ReentrantLock lockFor(int key) {
+        return locks[stripeIndex(key)];
+    }
+}
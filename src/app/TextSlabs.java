@@ -0,0 +1,118 @@
+package app;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Append-only UTF-8 storage for the values of an off-heap {@link IntRecordMap}, in direct ByteBuffer
+ * slabs of -Dftm.table.slabBytes (default 64 MiB) outside the Java heap. A value is stored once as
+ * [length][bytes] and named by a handle holding its slab and offset. Stored bytes are never overwritten,
+ * so maps that share the slabs after a snapshot can read them on other threads while either appends;
+ * space held by replaced and removed values is reclaimed by the map copying its live values into new slabs.
+ */
+class TextSlabs {
+    static final int SLAB_BYTES = (int) Math.max(1 << 16, Math.min(1 << 30, Settings.number("table.slabBytes", 64L << 20)));
+
+    private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+    private int position;   // next free byte in the last slab
+    private long allocated; // bytes handed out, including values no map uses any more
+
+    /** @return - handle of the stored value, never 0 */
+    long add(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return add(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    /** Store the UTF-8 bytes utf8[offset, offset + length) without decoding them. @return - never 0 */
+    long add(ByteBuffer utf8, int offset, int length) {
+        long handle = reserve(size(length));
+        ByteBuffer slab = slab(handle);
+        int at = offset(handle);
+        slab.putInt(at, length);
+        slab.put(at + 4, utf8, offset, length);
+        return handle;
+    }
+
+    String get(long handle) {
+        ByteBuffer slab = slab(handle);
+        int at = offset(handle);
+        byte[] bytes = new byte[slab.getInt(at)];
+        slab.get(at + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** @return - length of the value in UTF-8 bytes */
+    int length(long handle) {
+        return slab(handle).getInt(offset(handle));
+    }
+
+    /** Hand the value's bytes to the consumer straight from its slab. */
+    void read(int key, long handle, MappedRecordLoader.Utf8Sink consumer) {
+        ByteBuffer slab = slab(handle);
+        int at = offset(handle);
+        consumer.accept(key, slab, at + 4, slab.getInt(at));
+    }
+
+    /** @return - handle of a copy of another store's value in this one */
+    long copy(TextSlabs from, long handle) {
+        ByteBuffer slab = from.slab(handle);
+        int at = offset(handle);
+        return add(slab, at + 4, slab.getInt(at));
+    }
+
+    /** @return - the value's {@link #hash(ByteBuffer, int, int)}, computed from its bytes in the slab */
+    int hash(long handle) {
+        ByteBuffer slab = slab(handle);
+        int at = offset(handle);
+        return hash(slab, at + 4, slab.getInt(at));
+    }
+
+    /** @return - true if the stored value is the same UTF-8 bytes as utf8[offset, offset + length) */
+    boolean contentEquals(long handle, ByteBuffer utf8, int offset, int length) {
+        ByteBuffer slab = slab(handle);
+        int at = offset(handle);
+        return slab.getInt(at) == length && slab.slice(at + 4, length).equals(utf8.slice(offset, length));
+    }
+
+    /** @return - a hash of the bytes utf8[offset, offset + length), the same wherever they are stored */
+    static int hash(ByteBuffer utf8, int offset, int length) {
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) hash = 31 * hash + utf8.get(i);
+        return hash;
+    }
+
+    /** @return - bytes of slab space handed out, live or not */
+    synchronized long allocated() {
+        return allocated;
+    }
+
+    /** @return - slab space a value of the given UTF-8 length takes */
+    static long size(int length) {
+        return 4L + length;
+    }
+
+    /** Maps sharing these slabs may append from different threads, so claiming space is synchronized. */
+    private synchronized long reserve(long bytes) {
+        if (bytes > Integer.MAX_VALUE) throw new IllegalArgumentException("Value too large to store off-heap.");
+        ByteBuffer[] current = slabs;
+        if (current.length == 0 || position + bytes > current[current.length - 1].capacity()) {
+            current = Arrays.copyOf(current, current.length + 1);
+            current[current.length - 1] = ByteBuffer.allocateDirect((int) Math.max(SLAB_BYTES, bytes));
+            slabs = current;
+            position = 0;
+        }
+        long handle = ((long) current.length << 32) | position;
+        position += (int) bytes;
+        allocated += bytes;
+        return handle;
+    }
+
+    private ByteBuffer slab(long handle) {
+        return slabs[(int) (handle >>> 32) - 1];
+    }
+
+    private static int offset(long handle) {
+        return (int) handle;
+    }
+}
@@ -0,0 +1,81 @@
+package app;
+
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * Reference-counted intern table for text values that repeat, such as status strings and codes.
+ * A holder acquires each value it stores and releases it when it lets go; an equal value acquired
+ * while one is still held comes back as that instance, so the duplicate can be collected.
+ * Values stay Strings: the JDK already stores Latin-1 text at one byte per character.
+ */
+class ValueStore {
+    private final HashMap<String, Ref> refs;
+    private volatile long savedBytes; // written by the owner's thread, read by metrics
+
+    private static final class Ref {
+        final String value;
+        int count;
+
+        Ref(String value) {
+            this.value = value;
+        }
+    }
+
+    ValueStore() {
+        this(16);
+    }
+
+    ValueStore(int expectedSize) {
+        refs = new HashMap<>(Math.max(16, (int) (expectedSize / 0.75f) + 1));
+    }
+
+    /** @return - the instance to store: an equal value already held, or this one */
+    String acquire(String value) {
+        Ref ref = refs.computeIfAbsent(value, Ref::new);
+        if (ref.count++ > 0) savedBytes += bytes(value);
+        return ref.value;
+    }
+
+    /** @return - true if that was the last reference, so the value is no longer held */
+    boolean release(String value) {
+        Ref ref = refs.get(value);
+        if (ref == null) return false;
+        if (--ref.count == 0) {
+            refs.remove(value);
+            return true;
+        }
+        savedBytes -= bytes(value);
+        return false;
+    }
+
+    /** @return - how many times the value is held */
+    int references(Object value) {
+        Ref ref = refs.get(value);
+        return ref == null ? 0 : ref.count;
+    }
+
+    boolean contains(Object value) {
+        return refs.containsKey(value);
+    }
+
+    /** @return - the distinct values held */
+    Set<String> values() {
+        return refs.keySet();
+    }
+
+    void clear() {
+        refs.clear();
+        savedBytes = 0;
+    }
+
+    /** @return - heap the repeated values would take as separate Strings */
+    long savedBytes() {
+        return savedBytes;
+    }
+
+    /** Rough heap footprint of a String: header, byte array header and one byte per character. */
+    static long bytes(String value) {
+        return 40 + value.length();
+    }
+}
@@ -0,0 +1,276 @@
+package app;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * On-disk index of the saved files in the working directory and the versions kept for each, so menus
+ * can list them without scanning directories that may hold tens of thousands of entries.
+ * The catalog is an append-only text file in the version folder where a later line for the same name
+ * replaces an earlier one. It also records the modification times of the two directories; when either
+ * differs from what the catalog last saw, something outside the apps changed them and the catalog is
+ * rebuilt from one scan. Otherwise a listing costs two stats and, at most, one read of the catalog.
+ */
+class VersionCatalog {
+    private static final String HEADER = "ftm-catalog 1";
+    // versions named to the second by older releases, to the millisecond since
+    private static final Pattern TABLE_VERSION = Pattern.compile("(.+)_\\d{8}_\\d{6}(?:_\\d{3})?\\.bak\\.manifest");
+    private static final Pattern LIST_VERSION = Pattern.compile("(.+)_v\\d{8}_\\d{6}(?:_\\d{3})?\\.txt(\\.manifest)?");
+
+    /**
+     * A saved file or one of its versions.
+     * @param name - path of the file or version, as it is opened
+     * @param file - name of the saved file it belongs to (the name itself for a saved file)
+     * @param records - records or items it holds, or -1 if not known
+     */
+    record Entry(String name, String file, long size, long modified, long records) {
+        /** @param unit - what the records are called, e.g. "items" */
+        String describe(String unit) {
+            String when = new SimpleDateFormat("yyyy-MM-dd HH:mm").format(new Date(modified));
+            return VersionStore.displayName(Path.of(name)) + " (" + (size < 0 ? "?" : size / 1024) + " KB, " + when
+                    + (records < 0 ? "" : ", " + records + " " + unit) + ")";
+        }
+    }
+
+    private final Path dir;
+    private final Path versionDir;
+    private final Path catalogFile;
+    private final TreeMap<String, Entry> files = new TreeMap<>();
+    private final Map<String, TreeMap<String, Entry>> versions = new HashMap<>();
+    private long dirStamp;
+    private long versionDirStamp;
+    private long catalogStamp = Long.MIN_VALUE;
+    private int appended; // lines appended since the catalog was last rewritten
+
+    VersionCatalog(Path dir, Path versionDir) {
+        this.dir = dir;
+        this.versionDir = versionDir;
+        this.catalogFile = versionDir.resolve("catalog.txt");
+    }
+
+    /** @return - saved files in the working directory, by name */
+    synchronized List<Entry> savedFiles() throws IOException {
+        refresh(true);
+        return new ArrayList<>(files.values());
+    }
+
+    /** @return - versions kept for the file, newest first */
+    synchronized List<Entry> versionsOf(String file) throws IOException {
+        refresh(true);
+        TreeMap<String, Entry> kept = versions.get(Path.of(file).getFileName().toString());
+        if (kept == null) return new ArrayList<>();
+        List<Entry> newestFirst = new ArrayList<>(kept.size());
+        for (Entry entry : kept.descendingMap().values()) newestFirst.add(entry);
+        return newestFirst;
+    }
+
+    /** @return - the catalog entry for a saved file, or null if it is not in the working directory */
+    synchronized Entry savedFile(String name) throws IOException {
+        refresh(true);
+        return files.get(name);
+    }
+
+    /**
+     * Record a file just written by one of the apps.
+     * @param records - records or items written
+     */
+    synchronized void saved(Path file, long records) throws IOException {
+        if (!isInDir(file)) return;
+        refresh(false);
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        Entry entry = new Entry(file.getFileName().toString(), file.getFileName().toString(), attributes.size(),
+                attributes.lastModifiedTime().toMillis(), records);
+        files.put(entry.name(), entry);
+        append(line("file", entry.name(), entry.size(), entry.modified(), entry.records()));
+    }
+
+    /**
+     * Record a version just stored for a file. The record count is carried over from the file's own
+     * entry when that entry still describes the file that was versioned.
+     */
+    synchronized void versioned(Path file, Path version, long size) throws IOException {
+        refresh(false);
+        String fileName = file.getFileName().toString();
+        Entry current = isInDir(file) ? files.get(fileName) : null;
+        long records = -1;
+        if (current != null && Files.exists(file)) {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (current.size() == attributes.size() && current.modified() == attributes.lastModifiedTime().toMillis()) {
+                records = current.records();
+            }
+        }
+        Entry entry = new Entry(version.toString(), fileName, size,
+                Files.getLastModifiedTime(version).toMillis(), records);
+        versions.computeIfAbsent(fileName, k -> new TreeMap<>()).put(VersionStore.displayName(version), entry);
+        append(line("version", entry.file(), entry.name(), entry.size(), entry.modified(), entry.records()));
+    }
+
+    private boolean isInDir(Path file) {
+        Path parent = file.toAbsolutePath().normalize().getParent();
+        return parent != null && parent.equals(dir.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Bring the catalog in memory up to date with what other processes appended and, if asked, with the directories.
+     * The apps' own saves skip the directory check: they changed the directories themselves and record it right after.
+     */
+    private void refresh(boolean checkDirectories) throws IOException {
+        long stamp = modified(catalogFile);
+        if (stamp != catalogStamp) load();
+        if (catalogStamp == -1 || checkDirectories && (modified(dir) != dirStamp || modified(versionDir) != versionDirStamp)) {
+            rebuild();
+        }
+    }
+
+    private void load() throws IOException {
+        files.clear();
+        versions.clear();
+        dirStamp = -1;
+        versionDirStamp = -1;
+        catalogStamp = -1;
+        if (!Files.exists(catalogFile)) return;
+        try (BufferedReader reader = Files.newBufferedReader(catalogFile, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) return;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                try {
+                    switch (fields[0]) {
+                        case "dir" -> {
+                            if (fields[1].equals("versions")) versionDirStamp = Long.parseLong(fields[2]);
+                            else dirStamp = Long.parseLong(fields[2]);
+                        }
+                        case "file" -> files.put(fields[1], new Entry(fields[1], fields[1], Long.parseLong(fields[2]),
+                                Long.parseLong(fields[3]), Long.parseLong(fields[4])));
+                        case "version" -> versions.computeIfAbsent(fields[1], k -> new TreeMap<>()).put(
+                                VersionStore.displayName(Path.of(fields[2])), new Entry(fields[2], fields[1],
+                                        Long.parseLong(fields[3]), Long.parseLong(fields[4]), Long.parseLong(fields[5])));
+                        default -> { }
+                    }
+                } catch (RuntimeException e) {
+                    // a torn last line from an interrupted append; the directory check catches what it missed
+                }
+            }
+        }
+        catalogStamp = Files.getLastModifiedTime(catalogFile).toMillis();
+    }
+
+    /** Scan both directories, keeping known record counts for files that have not changed. */
+    private void rebuild() throws IOException {
+        Map<String, Entry> known = new HashMap<>(files);
+        Map<String, Entry> knownVersions = new HashMap<>();
+        for (TreeMap<String, Entry> kept : versions.values()) {
+            for (Entry entry : kept.values()) knownVersions.put(entry.name(), entry);
+        }
+        files.clear();
+        versions.clear();
+        Files.createDirectories(versionDir);
+        try (Stream<Path> listing = Files.list(dir)) {
+            for (Path path : (Iterable<Path>) listing::iterator) {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                if (!attributes.isRegularFile()) continue;
+                String name = path.getFileName().toString();
+                Entry entry = new Entry(name, name, attributes.size(), attributes.lastModifiedTime().toMillis(),
+                        unchangedRecords(known.get(name), attributes));
+                files.put(name, entry);
+                Matcher legacy = LIST_VERSION.matcher(name);
+                if (legacy.matches() && legacy.group(2) == null) {
+                    addVersion(legacy.group(1) + ".txt", entry, knownVersions.get(name), attributes);
+                }
+            }
+        }
+        try (Stream<Path> listing = Files.list(versionDir)) {
+            for (Path path : (Iterable<Path>) listing::iterator) {
+                String name = path.getFileName().toString();
+                Matcher table = TABLE_VERSION.matcher(name);
+                Matcher list = LIST_VERSION.matcher(name);
+                String file = table.matches() ? table.group(1) : list.matches() ? list.group(1) + ".txt" : null;
+                if (file == null) continue;
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                Entry entry = new Entry(path.toString(), file, manifestBytes(path), attributes.lastModifiedTime().toMillis(), -1);
+                addVersion(file, entry, knownVersions.get(path.toString()), attributes);
+            }
+        }
+        rewrite();
+    }
+
+    private void addVersion(String file, Entry entry, Entry known, BasicFileAttributes attributes) {
+        if (known != null && known.modified() == attributes.lastModifiedTime().toMillis()) entry = known;
+        versions.computeIfAbsent(file, k -> new TreeMap<>()).put(VersionStore.displayName(Path.of(entry.name())), entry);
+    }
+
+    private static long unchangedRecords(Entry known, BasicFileAttributes attributes) {
+        return known != null && known.size() == attributes.size()
+                && known.modified() == attributes.lastModifiedTime().toMillis() ? known.records() : -1;
+    }
+
+    /** @return - size of the version's contents from the manifest header, or -1 if it cannot be read */
+    private static long manifestBytes(Path manifest) {
+        try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            return Long.parseLong(header.substring(header.lastIndexOf(' ') + 1));
+        } catch (IOException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /** Write the whole catalog afresh, replacing the appended history. */
+    private void rewrite() throws IOException {
+        Path temp = catalogFile.resolveSibling(catalogFile.getFileName() + ".tmp");
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(temp, StandardCharsets.UTF_8))) {
+            out.println(HEADER);
+            for (Entry entry : files.values()) {
+                out.println(line("file", entry.name(), entry.size(), entry.modified(), entry.records()));
+            }
+            for (TreeMap<String, Entry> kept : versions.values()) {
+                for (Entry entry : kept.values()) {
+                    out.println(line("version", entry.file(), entry.name(), entry.size(), entry.modified(), entry.records()));
+                }
+            }
+        }
+        Files.move(temp, catalogFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        appended = 0;
+        stampDirectories();
+    }
+
+    private void append(String line) throws IOException {
+        try (Writer out = Files.newBufferedWriter(catalogFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            out.write(line);
+            out.write('\n');
+        }
+        if (++appended > Math.max(1000, files.size())) rewrite();
+        else stampDirectories();
+    }
+
+    /** Note the directories' current times, so the apps' own writes do not look like outside changes. */
+    private void stampDirectories() throws IOException {
+        long current = modified(dir);
+        long currentVersions = modified(versionDir);
+        if (current != dirStamp || currentVersions != versionDirStamp) {
+            dirStamp = current;
+            versionDirStamp = currentVersions;
+            try (Writer out = Files.newBufferedWriter(catalogFile, StandardCharsets.UTF_8, StandardOpenOption.APPEND)) {
+                out.write(line("dir", ".", dirStamp) + "\n" + line("dir", "versions", versionDirStamp) + "\n");
+            }
+        }
+        catalogStamp = Files.getLastModifiedTime(catalogFile).toMillis();
+    }
+
+    private static long modified(Path path) throws IOException {
+        return Files.exists(path) ? Files.getLastModifiedTime(path).toMillis() : -1;
+    }
+
+    private static String line(String kind, Object... fields) {
+        StringJoiner joiner = new StringJoiner("\t").add(kind);
+        for (Object field : fields) joiner.add(String.valueOf(field));
+        return joiner.toString();
+    }
+}
@@ -0,0 +1,221 @@
+package app;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Deduplicated store for saved versions. A file is cut into content-defined chunks (a gear rolling hash picks
+ * the boundaries, so an edit only changes the chunks around it), each distinct chunk is kept once under
+ * chunks/ named by its SHA-256, and a version is a small ".manifest" text file listing its chunk hashes.
+ * Chunks are cut from a file's plain contents, even if it is saved compressed, so that versions keep
+ * sharing them; with -Dftm.compress.level set, each chunk is stored compressed instead.
+ */
+class VersionStore {
+    static final String MANIFEST_SUFFIX = ".manifest";
+    private static final String MANIFEST_HEADER = "ftm-manifest 1";
+    private static final int MIN_CHUNK = 2 * 1024;
+    private static final int MAX_CHUNK = 64 * 1024;
+    private static final long BOUNDARY_MASK = ((1L << 13) - 1) << 51; // top bits, ~8 KiB average chunk
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x5EED_F11E);
+        for (int i = 0; i < GEAR.length; i++) GEAR[i] = random.nextLong();
+    }
+
+    /** What a store() call wrote. */
+    record Stored(Path manifest, int chunks, int newChunks, long bytes, long newBytes) {
+        String describe() {
+            return manifest + " (" + newChunks + " of " + chunks + " chunks new, "
+                    + newBytes / 1024 + " of " + bytes / 1024 + " KB written)";
+        }
+    }
+
+    private final Path chunkDir;
+    private Set<String> knownChunks; // filled from chunkDir on first use
+
+    VersionStore(Path root) {
+        this.chunkDir = root.resolve("chunks");
+    }
+
+    static boolean isManifest(Path path) {
+        return path.getFileName().toString().endsWith(MANIFEST_SUFFIX);
+    }
+
+    /**
+     * A manifest path for a new version: prefix, the time to the millisecond, then suffix, e.g.
+     * "table.txt_20240101_120000_123.bak.manifest". A name already taken moves on to the next
+     * millisecond, and {@link #store} fails rather than replace a manifest, so no save overwrites another's version.
+     */
+    static Path newManifestPath(Path dir, String prefix, String suffix) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd_HHmmss_SSS");
+        for (long time = System.currentTimeMillis(); ; time++) {
+            Path manifest = dir.resolve(prefix + format.format(new Date(time)) + suffix + MANIFEST_SUFFIX);
+            if (!Files.exists(manifest)) return manifest;
+        }
+    }
+
+    /** Version name shown to the user: the manifest name without its suffix. */
+    static String displayName(Path path) {
+        String name = path.getFileName().toString();
+        return isManifest(path) ? name.substring(0, name.length() - MANIFEST_SUFFIX.length()) : name;
+    }
+
+    /**
+     * Record the file as a new version, writing only chunks the store does not already hold.
+     * @param file - file to version
+     * @param manifest - where to write the version's manifest; a FileAlreadyExistsException if it exists
+     */
+    synchronized Stored store(Path file, Path manifest) throws IOException {
+        loadKnownChunks();
+        MessageDigest digest = sha256();
+        List<String> hashes = new ArrayList<>();
+        int newChunks = 0;
+        long bytes = 0;
+        long newBytes = 0;
+        byte[] chunk = new byte[MAX_CHUNK];
+        byte[] buffer = new byte[1 << 16];
+        int length = 0;
+        long rolling = 0;
+        try (InputStream in = CompressedFile.input(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    byte b = buffer[i];
+                    chunk[length++] = b;
+                    rolling = (rolling << 1) + GEAR[b & 0xFF];
+                    if ((length >= MIN_CHUNK && (rolling & BOUNDARY_MASK) == 0) || length == MAX_CHUNK) {
+                        String hash = hash(digest, chunk, length);
+                        hashes.add(hash);
+                        long written = writeChunk(hash, chunk, length);
+                        if (written >= 0) {
+                            newChunks++;
+                            newBytes += written;
+                        }
+                        bytes += length;
+                        length = 0;
+                        rolling = 0;
+                    }
+                }
+            }
+        }
+        if (length > 0) {
+            String hash = hash(digest, chunk, length);
+            hashes.add(hash);
+            long written = writeChunk(hash, chunk, length);
+            if (written >= 0) {
+                newChunks++;
+                newBytes += written;
+            }
+            bytes += length;
+        }
+        List<String> lines = new ArrayList<>(hashes.size() + 1);
+        lines.add(MANIFEST_HEADER + " " + bytes);
+        lines.addAll(hashes);
+        Path temp = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+        Files.write(temp, lines, StandardCharsets.UTF_8);
+        try {
+            Files.move(temp, manifest); // not ATOMIC_MOVE, which replaces an existing manifest on most systems
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return new Stored(manifest, hashes.size(), newChunks, bytes, newBytes);
+    }
+
+    /** Stream the contents of a stored version, chunk by chunk. */
+    InputStream open(Path manifest) throws IOException {
+        List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).startsWith(MANIFEST_HEADER)) {
+            throw new IOException(manifest + " is not a version manifest.");
+        }
+        Iterator<String> hashes = lines.subList(1, lines.size()).iterator();
+        return new SequenceInputStream(new Enumeration<>() {
+            @Override
+            public boolean hasMoreElements() {
+                return hashes.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                try (InputStream chunk = CompressedFile.input(chunkPath(hashes.next()))) {
+                    return new ByteArrayInputStream(chunk.readAllBytes());
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Missing chunk for " + manifest, e);
+                }
+            }
+        });
+    }
+
+    /** @return - bytes of the stored version, from the total its manifest header records */
+    static long size(Path manifest) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null || !header.startsWith(MANIFEST_HEADER + " ")) {
+                throw new IOException(manifest + " is not a version manifest.");
+            }
+            return Long.parseLong(header.substring(MANIFEST_HEADER.length() + 1).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException(manifest + " has no valid size in its header.");
+        }
+    }
+
+    /** Materialize a stored version as a plain file. */
+    void restore(Path manifest, Path target) throws IOException {
+        try (InputStream in = open(manifest)) {
+            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /** @return - bytes written, or -1 if the store already holds the chunk */
+    private long writeChunk(String hash, byte[] data, int length) throws IOException {
+        if (knownChunks.contains(hash)) return -1;
+        Path path = chunkPath(hash);
+        Files.createDirectories(path.getParent());
+        Path temp = path.resolveSibling(hash + ".tmp");
+        try (OutputStream out = CompressedFile.output(temp)) {
+            out.write(data, 0, length);
+        }
+        long written = Files.size(temp);
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        knownChunks.add(hash);
+        return written;
+    }
+
+    private Path chunkPath(String hash) {
+        return chunkDir.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private void loadKnownChunks() throws IOException {
+        if (knownChunks != null) return;
+        knownChunks = new HashSet<>();
+        if (!Files.isDirectory(chunkDir)) return;
+        try (Stream<Path> files = Files.walk(chunkDir, 2)) {
+            files.filter(Files::isRegularFile)
+                    .map(p -> p.getFileName().toString())
+                    .filter(name -> !name.endsWith(".tmp"))
+                    .forEach(knownChunks::add);
+        }
+    }
+
+    /** @param digest - reused for every chunk of a store() call; digest() leaves it reset for the next */
+    private static String hash(MessageDigest digest, byte[] data, int length) {
+        digest.update(data, 0, length);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package app;
+
+import static app.IntRecordMapTest.entries;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** The .ftb format: exact round trips, and corrupt or truncated files failing the load. */
+class BinaryTableFormatTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void valuesTextCannotHoldRoundTrip() throws IOException {
+        IntRecordMap<String> records = new IntRecordMap<>();
+        records.put(1, "two\nlines");
+        records.put(-7, "key=value = more");
+        records.put(Integer.MAX_VALUE, "\u00e9\u4e2d\ud83d\ude00");
+        records.put(Integer.MIN_VALUE, "");
+        records.put(3, "\r\n trailing space ");
+        assertEquals(entries(records), entries(roundTrip(records, new IntRecordMap<>())));
+        assertEquals(entries(records), entries(roundTrip(records, IntRecordMap.offHeap(0))));
+    }
+
+    @Test
+    void tablesSpanningManyBlocksRoundTrip() throws IOException {
+        IntRecordMap<String> records = IntRecordMap.offHeap(0);
+        for (int key = 0; key < 300_000; key++) records.put(key * 3, "record number " + key);
+        records.put(1, "x".repeat(3 << 20)); // larger than a block on its own
+        Path file = write(records);
+        assertTrue(Files.size(file) > 3 * (1 << 20));
+        assertEquals(entries(records), entries(read(file, new IntRecordMap<>())));
+    }
+
+    @Test
+    void anEmptyTableRoundTrips() throws IOException {
+        assertTrue(roundTrip(new IntRecordMap<>(), new IntRecordMap<>()).isEmpty());
+    }
+
+    @Test
+    void aFlippedByteFailsTheChecksum() throws IOException {
+        Path file = write(sample());
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 0x10;
+        Files.write(file, bytes);
+        IOException e = assertThrows(IOException.class, () -> read(file, new IntRecordMap<>()));
+        assertTrue(e.getMessage().contains("Checksum mismatch"), e.getMessage());
+    }
+
+    @Test
+    void everyTruncationFailsTheLoad() throws IOException {
+        byte[] bytes = Files.readAllBytes(write(sample()));
+        Path cut = dir.resolve("cut.ftb");
+        for (int length = 0; length < bytes.length; length += length < 64 ? 1 : 997) {
+            Files.write(cut, Arrays.copyOf(bytes, length));
+            assertThrows(IOException.class, () -> read(cut, new IntRecordMap<>()), "cut to " + length + " bytes");
+        }
+        Files.write(cut, Arrays.copyOf(bytes, bytes.length - 1)); // only the end marker is incomplete
+        assertThrows(IOException.class, () -> read(cut, new IntRecordMap<>()));
+    }
+
+    @Test
+    void otherFilesAreNotMistakenForTables() throws IOException {
+        Path text = dir.resolve("table.txt");
+        Files.writeString(text, "1=FTMB\n");
+        assertFalse(BinaryTableFormat.isBinaryFile(text));
+        Files.write(text, new byte[] {'F', 'T', 'M'});
+        assertFalse(BinaryTableFormat.isBinaryFile(text));
+        assertThrows(IOException.class, () -> read(text, new IntRecordMap<>()));
+        assertTrue(BinaryTableFormat.isBinaryFile(write(sample())));
+    }
+
+    private static IntRecordMap<String> sample() {
+        IntRecordMap<String> records = new IntRecordMap<>();
+        for (int key = 1; key <= 5_000; key++) records.put(key, "value " + key);
+        return records;
+    }
+
+    private IntRecordMap<String> roundTrip(IntRecordMap<String> records, IntRecordMap<String> into) throws IOException {
+        return read(write(records), into);
+    }
+
+    private Path write(IntRecordMap<String> records) throws IOException {
+        Path file = dir.resolve("table.ftb");
+        long bytes = BinaryTableFormat.write(file, records);
+        assertEquals(Files.size(file), bytes);
+        return file;
+    }
+
+    private static IntRecordMap<String> read(Path file, IntRecordMap<String> into) throws IOException {
+        if (into.isOffHeap()) BinaryTableFormat.readUtf8(file, into::putUtf8);
+        else BinaryTableFormat.read(file, into::put);
+        return into;
+    }
+}
@@ -0,0 +1,151 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** The recovery file: commits appended and read back, and torn, damaged or stale files ignored. */
+class CheckpointerTest {
+    @TempDir
+    Path dir;
+    private Path file;
+    private final Deque<Checkpointer.Changes> pending = new ArrayDeque<>();
+    private final List<String> reports = new ArrayList<>();
+    private int basesLost;
+    private Checkpointer checkpointer;
+
+    @BeforeEach
+    void create() {
+        file = dir.resolve("recovery").resolve("table.recovery");
+        checkpointer = new Checkpointer(file, new Checkpointer.Source() {
+            @Override
+            public Checkpointer.Changes take() {
+                return pending.poll();
+            }
+
+            @Override
+            public void baseLost() {
+                basesLost++;
+            }
+        }, reports::add);
+    }
+
+    @Test
+    void commitsAreReadBackInOrder() throws IOException {
+        checkpoint(null, false, "first");
+        checkpoint(null, false, "second \ud83d\ude00");
+        checkpointer.checkpoint(); // nothing changed
+        Checkpointer.Recovery recovery = checkpointer.recovery(reports::add);
+        assertNull(recovery.base());
+        assertEquals(List.of("first", "second \ud83d\ude00"), texts(recovery));
+        assertEquals(List.of(), reports);
+    }
+
+    @Test
+    void aRestartDropsTheEarlierCommits() throws IOException {
+        Path base = Files.writeString(dir.resolve("table.txt"), "1=one\n");
+        checkpoint(null, false, "before the save");
+        checkpoint(base, true, "after the save");
+        Checkpointer.Recovery recovery = checkpointer.recovery(reports::add);
+        assertEquals(base, recovery.base());
+        assertEquals(List.of("after the save"), texts(recovery));
+
+        checkpoint(base, true, null); // saved again, nothing left to recover
+        assertFalse(Files.exists(file));
+        assertNull(checkpointer.recovery(reports::add));
+    }
+
+    @Test
+    void aTornLastCommitIsIgnored() throws IOException {
+        checkpoint(null, false, "kept");
+        long firstEnd = Files.size(file);
+        checkpoint(null, false, "torn");
+        byte[] bytes = Files.readAllBytes(file);
+        for (int length = (int) firstEnd; length < bytes.length; length++) {
+            Files.write(file, Arrays.copyOf(bytes, length));
+            assertEquals(List.of("kept"), texts(checkpointer.recovery(reports::add)), "cut to " + length);
+        }
+        Files.write(file, Arrays.copyOf(bytes, (int) firstEnd - 1)); // no complete commit left
+        assertNull(checkpointer.recovery(reports::add));
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void aDamagedFileIsIgnoredAndDeleted() throws IOException {
+        checkpoint(null, false, "changes");
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[0] = 'X';
+        Files.write(file, bytes);
+        assertNull(checkpointer.recovery(reports::add));
+        assertFalse(Files.exists(file));
+        assertEquals(1, reports.size());
+    }
+
+    @Test
+    void aBaseChangedSinceIsNotRecovered() throws IOException {
+        Path base = Files.writeString(dir.resolve("table.txt"), "1=one\n");
+        checkpoint(base, true, "changes");
+        Files.writeString(base, "1=one\n2=saved elsewhere\n");
+        assertNull(checkpointer.recovery(reports::add));
+        assertFalse(Files.exists(file));
+        assertEquals(1, reports.size());
+    }
+
+    @Test
+    void aBaseChangedBetweenCheckpointsRestartsFromEverything() throws IOException {
+        Path base = Files.writeString(dir.resolve("table.txt"), "1=one\n");
+        checkpoint(base, true, "first");
+        Files.writeString(base, "1=one\n2=written by someone else\n");
+        pending.add(Checkpointer.Changes.of(base, false, payload("second")));
+        pending.add(Checkpointer.Changes.of(null, true, payload("everything")));
+        checkpointer.checkpoint();
+        assertEquals(1, basesLost);
+        Checkpointer.Recovery recovery = checkpointer.recovery(reports::add);
+        assertNull(recovery.base());
+        assertEquals(List.of("everything"), texts(recovery));
+    }
+
+    @Test
+    void aFileDeletedByHandIsWrittenAgainInFull() throws IOException {
+        checkpoint(null, false, "first");
+        Files.delete(file);
+        pending.add(Checkpointer.Changes.of(null, false, payload("second")));
+        pending.add(Checkpointer.Changes.of(null, true, payload("everything")));
+        checkpointer.checkpoint();
+        assertEquals(1, basesLost);
+        assertEquals(List.of("everything"), texts(checkpointer.recovery(reports::add)));
+    }
+
+    @Test
+    void closingWithoutKeepingDeletesTheFile() throws IOException {
+        checkpoint(null, false, "changes");
+        checkpointer.close(false);
+        assertFalse(Files.exists(file));
+    }
+
+    private void checkpoint(Path base, boolean restart, String text) throws IOException {
+        pending.add(Checkpointer.Changes.of(base, restart, text == null ? null : payload(text)));
+        checkpointer.checkpoint();
+        assertTrue(pending.isEmpty());
+    }
+
+    private static Checkpointer.Payload payload(String text) {
+        return out -> Checkpointer.writeText(out, text);
+    }
+
+    private static List<String> texts(Checkpointer.Recovery recovery) {
+        List<String> texts = new ArrayList<>();
+        for (ByteBuffer commit : recovery.commits()) {
+            texts.add(Checkpointer.readText(commit));
+            assertFalse(commit.hasRemaining());
+        }
+        return texts;
+    }
+}
@@ -0,0 +1,95 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** The FTMZ container: round trips through both readers, plain look-alikes, corruption and truncation. */
+class CompressedFileTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void aFileOfManyBlocksRoundTrips() throws IOException {
+        StringBuilder table = new StringBuilder();
+        for (int key = 1; key <= 200_000; key++) table.append(key).append("=record ").append(key % 1_000).append('\n');
+        Path file = compressed(table.toString());
+        assertTrue(Files.size(file) < table.length() / 4);
+        assertEquals(table.toString(), readAll(file));
+
+        IntRecordMap<String> records = new IntRecordMap<>();
+        FileTableMaker.readTable(file, records); // inflates and parses the blocks in parallel
+        assertEquals(200_000, records.size());
+        assertEquals("record 999", records.get(199_999));
+    }
+
+    @Test
+    void aLineLongerThanABlockRoundTrips() throws IOException {
+        String text = "1=" + "x".repeat(3 << 20) + "\n2=after\n";
+        assertEquals(text, readAll(compressed(text)));
+    }
+
+    @Test
+    void emptyFilesRoundTrip() throws IOException {
+        Path file = compressed("");
+        assertEquals(8 + 12, Files.size(file));
+        assertEquals("", readAll(file));
+        assertEquals("", readAll(Files.write(dir.resolve("plain.txt"), new byte[0])));
+    }
+
+    @Test
+    void plainFilesStartingWithTheMagicReadAsPlain() throws IOException {
+        for (String text : new String[] {"FTMZ", "FTMZ is my first item\nsecond\n", "FTMZ\u0001\0\0\0 and more text after it\n"}) {
+            Path file = Files.writeString(dir.resolve("plain.txt"), text);
+            assertEquals(text, readAll(file));
+        }
+    }
+
+    @Test
+    void aFlippedByteFailsTheLoad() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 50_000; i++) text.append("line ").append(i).append('\n');
+        byte[] bytes = Files.readAllBytes(compressed(text.toString()));
+        Path damaged = dir.resolve("damaged.txt");
+        for (int at = 30; at < bytes.length - 12; at += 1_013) { // past the first zlib header, before the end block
+            byte[] copy = bytes.clone();
+            copy[at] ^= 0x41;
+            Files.write(damaged, copy);
+            assertThrows(IOException.class, () -> readAll(damaged), "byte " + at);
+        }
+    }
+
+    @Test
+    void everyTruncationFailsTheLoad() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5_000; i++) text.append("line ").append(i).append('\n');
+        byte[] bytes = Files.readAllBytes(compressed(text.toString()));
+        Path cut = dir.resolve("cut.txt");
+        for (int length = 8 + 12 + 2; length < bytes.length; length += length < 100 ? 1 : 101) {
+            Files.write(cut, Arrays.copyOf(bytes, length));
+            assertThrows(IOException.class, () -> readAll(cut), "cut to " + length + " bytes");
+        }
+    }
+
+    private Path compressed(String text) throws IOException {
+        Path file = dir.resolve("compressed.txt");
+        try (OutputStream out = CompressedFile.output(file, 1)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+
+    private static String readAll(Path file) throws IOException {
+        try (InputStream in = CompressedFile.input(file)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
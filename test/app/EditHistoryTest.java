@@ -0,0 +1,76 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/** EditHistory's budget: what is dropped first, and that the byte count matches what is held. */
+class EditHistoryTest {
+
+    @Test
+    void undoingALongWayKeepsTheUndoHistory() {
+        EditHistory<Integer> history = new EditHistory<>(100, edit -> 10);
+        for (int edit = 0; edit < 10; edit++) history.record(edit);
+        assertEquals(10, history.undoSize());
+        List<Integer> undone = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(history.undo(edit -> {
+                undone.add(edit);
+                return edit;
+            }));
+        }
+        assertEquals(List.of(9, 8, 7, 6, 5, 4, 3, 2, 1, 0), undone);
+        assertFalse(history.undo(edit -> edit));
+        assertEquals(10, history.redoSize());
+        assertEquals(100, history.bytes());
+    }
+
+    @Test
+    void theRedoStepsFurthestAwayAreDroppedBeforeAnyUndoStep() {
+        EditHistory<Integer> history = new EditHistory<>(100, edit -> edit >= 100 ? 30 : 10);
+        for (int edit = 0; edit < 10; edit++) history.record(edit);
+        for (int i = 0; i < 4; i++) history.undo(edit -> edit + 100); // each inverse is 20 bytes larger
+        // the first undo has to drop two undo steps; the later ones drop the furthest redo step instead
+        assertEquals(4, history.undoSize());
+        assertEquals(2, history.redoSize());
+        assertEquals(100, history.bytes());
+        List<Integer> redone = new ArrayList<>();
+        while (history.redo(edit -> {
+            redone.add(edit);
+            return edit - 100;
+        })) { }
+        assertEquals(List.of(106, 107), redone);
+        assertEquals(6, history.undoSize());
+        assertEquals(60, history.bytes());
+    }
+
+    @Test
+    void theOldestUndoStepsGoOnceThereIsNoRedo() {
+        EditHistory<Integer> history = new EditHistory<>(100, edit -> 10);
+        for (int edit = 0; edit < 15; edit++) history.record(edit);
+        assertEquals(10, history.undoSize());
+        List<Integer> undone = new ArrayList<>();
+        while (history.undo(edit -> {
+            undone.add(edit);
+            return edit;
+        })) { }
+        assertEquals(List.of(14, 13, 12, 11, 10, 9, 8, 7, 6, 5), undone);
+    }
+
+    @Test
+    void anEntryOverTheBudgetAloneIsKept() {
+        EditHistory<Integer> history = new EditHistory<>(100, edit -> edit);
+        history.record(10);
+        history.record(500);
+        assertEquals(1, history.undoSize());
+        assertEquals(500, history.bytes());
+        assertTrue(history.undo(edit -> edit));
+        assertEquals(1, history.redoSize());
+        assertEquals(0, history.undoSize());
+        history.record(5);
+        assertEquals(0, history.redoSize());
+        assertEquals(5, history.bytes());
+    }
+}
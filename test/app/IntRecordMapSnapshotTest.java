@@ -0,0 +1,178 @@
+package app;
+
+import static app.IntRecordMapTest.entries;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+
+/** Copy-on-write snapshots: neither the map nor any of its snapshots sees the others' later writes. */
+class IntRecordMapSnapshotTest {
+
+    @Test
+    void writesToTheMapDoNotReachTheSnapshot() {
+        isolatedBothWays(IntRecordMap::new);
+    }
+
+    @Test
+    void writesToTheMapDoNotReachTheSnapshotOffHeap() {
+        isolatedBothWays(() -> IntRecordMap.offHeap(0));
+    }
+
+    @Test
+    void writesToTheMapDoNotReachTheSnapshotDeduplicated() {
+        isolatedBothWays(() -> IntRecordMap.deduplicated(0));
+    }
+
+    @Test
+    void writesToTheMapDoNotReachTheSnapshotDeduplicatedOffHeap() {
+        isolatedBothWays(() -> IntRecordMap.deduplicatedOffHeap(0));
+    }
+
+    @Test
+    void aSnapshotOfADeduplicatedMapIsDeduplicatedToo() {
+        IntRecordMap<String> map = IntRecordMap.deduplicated(0);
+        for (int key = 0; key < 10_000; key++) map.put(key, new String("state " + key % 4));
+        long saved = map.dedupSavedBytes();
+        IntRecordMap<String> snapshot = map.snapshot();
+        assertEquals(saved, snapshot.dedupSavedBytes());
+        snapshot.put(20_000, new String("state 1"));
+        assertSame(snapshot.get(1), snapshot.get(20_000));
+        assertEquals(saved + ValueStore.bytes("state 1"), snapshot.dedupSavedBytes());
+        snapshot.remove(1);
+        assertEquals(saved, snapshot.dedupSavedBytes());
+        assertEquals(saved, map.dedupSavedBytes()); // the map's counts are its own
+        map.put(30_000, new String("state 2"));
+        assertSame(map.get(2), map.get(30_000));
+
+        IntRecordMap<String> offHeap = IntRecordMap.deduplicatedOffHeap(0);
+        for (int key = 0; key < 10_000; key++) offHeap.put(key, "state " + key % 4);
+        IntRecordMap<String> offHeapSnapshot = offHeap.snapshot();
+        long allocated = offHeapSnapshot.offHeapBytes();
+        offHeapSnapshot.put(20_000, "state 3");
+        assertEquals(allocated, offHeapSnapshot.offHeapBytes()); // found in the shared slabs
+        offHeapSnapshot.clear();
+        offHeapSnapshot.put(1, "state 3");
+        offHeapSnapshot.put(2, "state 3");
+        assertEquals(TextSlabs.size("state 3".length()), offHeapSnapshot.dedupSavedBytes());
+    }
+
+    @Test
+    void valuesTheMapAddsAreNoGarbageToItsSnapshot() {
+        List<Supplier<IntRecordMap<String>>> kinds = List.of(() -> IntRecordMap.offHeap(0), () -> IntRecordMap.deduplicatedOffHeap(0));
+        for (Supplier<IntRecordMap<String>> maps : kinds) {
+            IntRecordMap<String> map = maps.get();
+            for (int key = 0; key < 10_000; key++) map.put(key, "first " + key);
+            IntRecordMap<String> snapshot = map.snapshot();
+            long held = snapshot.offHeapBytes();
+            for (int key = 10_000; key < 60_000; key++) map.put(key, "added later " + key); // many slabs, all live
+            snapshot.put(100_000, "one more");
+            assertTrue(snapshot.sharesSlabsWith(map), "the snapshot compacted values it still uses");
+            assertEquals(held + TextSlabs.size("one more".length()), snapshot.offHeapBytes());
+
+            for (int key = 100; key < 10_000; key++) snapshot.remove(key); // its own garbage is still reclaimed
+            assertFalse(snapshot.sharesSlabsWith(map));
+            assertEquals("first 99", snapshot.get(99));
+            assertEquals("first 5000", map.get(5000));
+            assertEquals(60_000, map.size());
+        }
+    }
+
+    @Test
+    void clearingEitherSideLeavesTheOtherWhole() {
+        IntRecordMap<String> map = IntRecordMap.offHeap(0);
+        fill(map, 10_000);
+        IntRecordMap<String> snapshot = map.snapshot();
+        List<String> before = entries(map);
+        map.clear();
+        map.put(1, "after clear");
+        assertEquals(before, entries(snapshot));
+        snapshot.clear();
+        assertEquals(List.of("1=after clear"), entries(map));
+    }
+
+    @Test
+    void aChainOfSnapshotsKeepsEveryState() {
+        Random random = new Random(7);
+        IntRecordMap<String> map = new IntRecordMap<>();
+        List<IntRecordMap<String>> snapshots = new ArrayList<>();
+        List<List<String>> states = new ArrayList<>();
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 2_000; i++) {
+                int key = random.nextInt(20_000);
+                if (random.nextInt(4) == 0) map.remove(key);
+                else map.put(key, "r" + round + " " + i);
+            }
+            snapshots.add(map.snapshot());
+            states.add(entries(map));
+            if (round % 3 == 0) snapshots.add(snapshots.get(snapshots.size() - 1).snapshot());
+            if (round % 3 == 0) states.add(states.get(states.size() - 1));
+        }
+        for (int i = 0; i < snapshots.size(); i++) assertEquals(states.get(i), entries(snapshots.get(i)), "snapshot " + i);
+    }
+
+    @Test
+    void pagingThroughAMapWhileAnotherThreadSnapshotsItChangesNothing() throws Exception {
+        IntRecordMap<String> map = new IntRecordMap<>();
+        fill(map, 50_000);
+        for (int key = 0; key < 50_000; key += 3) map.remove(key); // tombstones in every page
+        List<String> expected = entries(map);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread snapshots = new Thread(() -> {
+            try {
+                while (!done.get()) assertEquals(expected, entries(map.snapshot()));
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        snapshots.start();
+        try {
+            for (int round = 0; round < 20; round++) {
+                for (int from = 0; from < expected.size(); from += 1_000) {
+                    List<String> window = new ArrayList<>();
+                    map.forEachInRange(from, 20, (key, value) -> window.add(key + "=" + value));
+                    assertEquals(expected.subList(from, Math.min(expected.size(), from + 20)), window);
+                }
+            }
+        } finally {
+            done.set(true);
+            snapshots.join();
+        }
+        assertNull(failure.get());
+        assertEquals(expected, entries(map));
+    }
+
+    private static void isolatedBothWays(Supplier<IntRecordMap<String>> maps) {
+        IntRecordMap<String> map = maps.get();
+        fill(map, 30_000); // several pages of keys, values and table
+        List<String> original = entries(map);
+        IntRecordMap<String> snapshot = map.snapshot();
+
+        Random random = new Random(11);
+        for (int i = 0; i < 20_000; i++) {
+            int key = random.nextInt(40_000);
+            if (random.nextBoolean()) map.remove(key);
+            else map.put(key, "map " + i);
+        }
+        List<String> changed = entries(map);
+        assertEquals(original, entries(snapshot));
+        assertEquals(original.size(), snapshot.size());
+        assertEquals("value 5", snapshot.get(5));
+
+        for (int i = 0; i < 20_000; i++) {
+            int key = random.nextInt(40_000);
+            if (random.nextBoolean()) snapshot.remove(key);
+            else snapshot.put(key, "snapshot " + i);
+        }
+        assertEquals(changed, entries(map));
+        assertNotEquals(original, entries(snapshot));
+    }
+
+    private static void fill(IntRecordMap<String> map, int count) {
+        for (int key = 0; key < count; key++) map.put(key, "value " + (key % 1_000 == 0 ? key : key % 97));
+    }
+}
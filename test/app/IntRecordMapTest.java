@@ -0,0 +1,163 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+/** IntRecordMap against a LinkedHashMap: order, tombstones, compaction, growth and free keys. */
+class IntRecordMapTest {
+
+    @Test
+    void replacingKeepsThePositionAndReaddingMovesToTheEnd() {
+        IntRecordMap<String> map = new IntRecordMap<>();
+        map.put(3, "c");
+        map.put(1, "a");
+        map.put(2, "b");
+        assertEquals("a", map.put(1, "A"));
+        assertEquals(List.of("3=c", "1=A", "2=b"), entries(map));
+        assertEquals("c", map.remove(3));
+        assertNull(map.remove(3));
+        map.put(3, "C");
+        assertEquals(List.of("1=A", "2=b", "3=C"), entries(map));
+        assertEquals(3, map.size());
+        assertFalse(map.containsKey(4));
+        assertThrows(NullPointerException.class, () -> map.put(4, null));
+    }
+
+    @Test
+    void removingMostEntriesCompactsWithoutLosingOrder() {
+        IntRecordMap<String> map = new IntRecordMap<>();
+        for (int key = 0; key < 20_000; key++) map.put(key, "v" + key);
+        for (int key = 0; key < 20_000; key++) {
+            if (key % 10 != 0) map.remove(key);
+        }
+        for (int key = 20_000; key < 40_000; key++) map.put(key, "v" + key); // fills the tombstoned slots
+        List<String> expected = new ArrayList<>();
+        for (int key = 0; key < 20_000; key += 10) expected.add(key + "=v" + key);
+        for (int key = 20_000; key < 40_000; key++) expected.add(key + "=v" + key);
+        assertEquals(expected, entries(map));
+        assertEquals(expected.size(), map.size());
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertEquals(List.of(), entries(map));
+        map.put(7, "again");
+        assertEquals(List.of("7=again"), entries(map));
+    }
+
+    @Test
+    void randomEditsMatchALinkedHashMap() {
+        checkAgainstLinkedHashMap(new IntRecordMap<>(), new Random(1));
+    }
+
+    @Test
+    void randomEditsMatchALinkedHashMapOffHeap() {
+        checkAgainstLinkedHashMap(IntRecordMap.offHeap(0), new Random(2));
+    }
+
+    @Test
+    void randomEditsMatchALinkedHashMapDeduplicated() {
+        checkAgainstLinkedHashMap(IntRecordMap.deduplicated(0), new Random(3));
+    }
+
+    @Test
+    void randomEditsMatchALinkedHashMapDeduplicatedOffHeap() {
+        checkAgainstLinkedHashMap(IntRecordMap.deduplicatedOffHeap(0), new Random(4));
+    }
+
+    @Test
+    void equalValuesAreKeptOnce() {
+        IntRecordMap<String> map = IntRecordMap.deduplicated(0);
+        map.put(1, new String("open"));
+        map.put(2, new String("open"));
+        assertSame(map.get(1), map.get(2));
+        assertEquals(ValueStore.bytes("open"), map.dedupSavedBytes());
+        map.remove(1);
+        assertEquals(0, map.dedupSavedBytes());
+
+        IntRecordMap<String> offHeap = IntRecordMap.deduplicatedOffHeap(0);
+        for (int key = 0; key < 1_000; key++) offHeap.put(key, "status " + key % 3);
+        assertEquals(997 * TextSlabs.size("status 0".length()), offHeap.dedupSavedBytes());
+        long allocated = offHeap.offHeapBytes();
+        for (int key = 0; key < 1_000; key++) offHeap.put(key, "status " + (key + 1) % 3); // all held already
+        assertEquals(allocated, offHeap.offHeapBytes());
+    }
+
+    @Test
+    void deduplicatedOffHeapValuesSurviveCompaction() {
+        IntRecordMap<String> map = IntRecordMap.deduplicatedOffHeap(0);
+        String big = "x".repeat(1_000);
+        for (int round = 0; round < 300; round++) {
+            for (int key = 0; key < 100; key++) map.put(key, key % 2 == 0 ? big : big + round); // garbage every round
+        }
+        assertTrue(map.offHeapBytes() < 10 * TextSlabs.SLAB_BYTES, "compacted: " + map.offHeapBytes());
+        for (int key = 0; key < 100; key++) assertEquals(key % 2 == 0 ? big : big + 299, map.get(key));
+        assertEquals(49 * TextSlabs.size(big.length()) + 49 * TextSlabs.size(big.length() + 3), map.dedupSavedBytes());
+    }
+
+    @Test
+    void lowestFreeKeyFindsTheFirstGap() {
+        IntRecordMap<String> map = new IntRecordMap<>();
+        assertEquals(1, map.lowestFreeKey());
+        for (int key = 1; key <= 100; key++) map.put(key, "x");
+        assertEquals(101, map.lowestFreeKey());
+        map.remove(40);
+        map.remove(7);
+        assertEquals(7, map.lowestFreeKey());
+        map.put(7, "x");
+        assertEquals(40, map.lowestFreeKey());
+        map.put(-5, "negative keys are not free keys");
+        map.put(40, "x");
+        assertEquals(101, map.lowestFreeKey());
+        map.clear();
+        assertEquals(1, map.lowestFreeKey());
+    }
+
+    @Test
+    void charCountFollowsEveryChange() {
+        IntRecordMap<String> map = new IntRecordMap<>();
+        map.put(1, "abc");
+        map.put(2, "de");
+        map.put(1, "z");
+        assertEquals(3, map.charCount());
+        map.remove(2);
+        assertEquals(1, map.charCount());
+        map.clear();
+        assertEquals(0, map.charCount());
+    }
+
+    /** Random puts, replacements and removes, comparing contents, order and every window of the order. */
+    private static void checkAgainstLinkedHashMap(IntRecordMap<String> map, Random random) {
+        Map<Integer, String> expected = new LinkedHashMap<>();
+        for (int i = 0; i < 50_000; i++) {
+            int key = random.nextInt(3_000) - 100;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                String value = "value \u00e9 " + random.nextInt(50);
+                assertEquals(expected.put(key, value), map.put(key, value));
+            }
+            if (i % 5_000 == 0) assertContents(expected, map);
+        }
+        assertContents(expected, map);
+        for (int key = -100; key < 2_900; key++) assertEquals(expected.get(key), map.get(key));
+    }
+
+    private static void assertContents(Map<Integer, String> expected, IntRecordMap<String> map) {
+        List<String> order = new ArrayList<>();
+        expected.forEach((key, value) -> order.add(key + "=" + value));
+        assertEquals(order, entries(map));
+        assertEquals(expected.size(), map.size());
+        for (int from = 0; from <= order.size(); from += 97) {
+            List<String> window = new ArrayList<>();
+            map.forEachInRange(from, 50, (key, value) -> window.add(key + "=" + value));
+            assertEquals(order.subList(from, Math.min(order.size(), from + 50)), window, "window at " + from);
+        }
+    }
+
+    static List<String> entries(IntRecordMap<String> map) {
+        List<String> entries = new ArrayList<>();
+        map.forEach((key, value) -> entries.add(key + "=" + value));
+        return entries;
+    }
+}
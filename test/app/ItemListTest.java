@@ -0,0 +1,82 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/** ItemList's search positions against a scan of the list, on both backends, while the list is edited. */
+class ItemListTest {
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void searchPositionsFollowEveryEdit(boolean tree) {
+        Random random = new Random(17);
+        ItemList list = new ItemList(tree);
+        List<String> model = new ArrayList<>();
+        for (int i = 0; i < 200; i++) add(list, model, model.size(), item(random));
+        list.buildSearchIndex();
+        for (int step = 0; step < 5000; step++) {
+            int op = random.nextInt(10);
+            if (op < 3 || model.isEmpty()) {
+                add(list, model, random.nextInt(model.size() + 1), item(random));
+            } else if (op < 5) {
+                add(list, model, model.size(), item(random));
+            } else if (op < 7) {
+                int index = random.nextInt(model.size());
+                String item = item(random);
+                assertEquals(model.set(index, item), list.set(index, item));
+            } else if (op < 9) {
+                int index = random.nextInt(model.size());
+                assertEquals(model.remove(index), list.remove(index));
+            } else if (step % 1000 == 999) {
+                list.clear();
+                model.clear();
+            }
+            if (step % 50 == 0) {
+                for (String query : new String[] {"apple", "pear", "grape", "ch", "^plum"}) {
+                    assertArrayEquals(scan(model, query), list.find(query), query + " at step " + step);
+                }
+            }
+        }
+        assertEquals(model, list);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void anIndexBuiltLaterFindsWhatIsAlreadyThere(boolean tree) {
+        ItemList list = new ItemList(tree);
+        for (String item : new String[] {"pear", "Apple", "apple pie", "pear", "fig", "Pear"}) list.add(item);
+        list.add(0, "crab apple");
+        list.remove(4);
+        assertArrayEquals(new int[] {0, 2, 3}, list.find("apple"));
+        assertArrayEquals(new int[] {1, 5}, list.find("pear"));
+        list.set(1, "fig");
+        assertArrayEquals(new int[] {5}, list.find("pear"));
+        assertArrayEquals(new int[] {1, 4}, list.find("fig"));
+    }
+
+    private static void add(ItemList list, List<String> model, int index, String item) {
+        list.add(index, item);
+        model.add(index, item);
+    }
+
+    private static String item(Random random) {
+        String[] words = {"apple", "pear", "grape", "cherry", "plum", "peach"};
+        String item = words[random.nextInt(words.length)];
+        return random.nextBoolean() ? item : item + " " + words[random.nextInt(words.length)] + random.nextInt(4);
+    }
+
+    private static int[] scan(List<String> model, String query) {
+        return IntStream.range(0, model.size()).filter(i -> {
+            String item = model.get(i).toLowerCase();
+            if (!query.startsWith("^")) return item.contains(query);
+            String word = query.substring(1);
+            return item.startsWith(word) || item.contains(" " + word);
+        }).toArray();
+    }
+}
@@ -0,0 +1,72 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Lists read in parallel chunks come out line for line as the Scanner the list app used to read them with. */
+class ParallelLoaderTest {
+    private static final String[] BREAKS = {"\n", "\r\n", "\r", "\u2028", "\u0085"};
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void everyLineBreakAScannerKnowsEndsALine() {
+        String text = "a\nb\r\nc\rd\u2028 e \u2029f\u0085\r\n\n g\r";
+        assertEquals(scan(text), lines(text, StandardCharsets.UTF_8));
+        assertEquals(List.of("a", "b", "c", "d", "e", "f", "", "", "g"), lines(text, StandardCharsets.UTF_8));
+        assertEquals(scan("last line without a break"), lines("last line without a break", StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void aLargeListWithMixedBreaksReadsAsAScannerDoes() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 400_000; i++) {
+            text.append("  item ").append(i % 977).append(i % 5 == 0 ? " \u00e9t\u00e9" : "").append(BREAKS[i % BREAKS.length]);
+        }
+        text.append("no break at the end");
+        Path file = dir.resolve("list.txt");
+        Files.write(file, text.toString().getBytes(Charset.defaultCharset()));
+        assertTrue(Files.size(file) > 4 << 20); // several chunks
+
+        List<String> expected = new ArrayList<>();
+        try (Scanner scanner = new Scanner(file)) {
+            while (scanner.hasNextLine()) expected.add(scanner.nextLine().trim());
+        }
+        assertEquals(expected, FileListMaker.readList(file));
+    }
+
+    @Test
+    void onlyCharsetsThatWriteNewlinesAsSingleBytesAreCutIntoChunks() {
+        assertTrue(ParallelLoader.isAsciiCompatible(StandardCharsets.UTF_8));
+        assertTrue(ParallelLoader.isAsciiCompatible(StandardCharsets.ISO_8859_1));
+        assertTrue(ParallelLoader.isAsciiCompatible(StandardCharsets.US_ASCII));
+        assertFalse(ParallelLoader.isAsciiCompatible(StandardCharsets.UTF_16));
+        assertFalse(ParallelLoader.isAsciiCompatible(StandardCharsets.UTF_16LE));
+        assertFalse(ParallelLoader.isAsciiCompatible(StandardCharsets.UTF_16BE));
+        assertFalse(ParallelLoader.isAsciiCompatible(Charset.forName("UTF-32")));
+    }
+
+    private static List<String> lines(String text, Charset charset) {
+        return ParallelLoader.trimmedLines(ByteBuffer.wrap(text.getBytes(charset)), charset);
+    }
+
+    private static List<String> scan(String text) {
+        List<String> lines = new ArrayList<>();
+        try (Scanner scanner = new Scanner(text)) {
+            while (scanner.hasNextLine()) lines.add(scanner.nextLine().trim());
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,111 @@
+package app;
+
+import static app.IntRecordMapTest.entries;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Journal commits replayed on their base, and torn, damaged or stale journals ignored. */
+class RecordJournalTest {
+    @TempDir
+    Path dir;
+    private Path base;
+    private final List<String> reports = new ArrayList<>();
+
+    @BeforeEach
+    void writeBase() throws IOException {
+        base = dir.resolve("table.txt");
+        Files.writeString(base, "1=one\n2=two\n3=three\n");
+    }
+
+    @Test
+    void commitsReplayInOrderOnTheBase() throws IOException {
+        RecordJournal.append(base, List.of(RecordEdit.put(4, "four"), RecordEdit.put(1, "ONE\nwith a line break")));
+        RecordJournal.append(base, List.of(RecordEdit.remove(2), RecordEdit.swap(3, 4), RecordEdit.put(-9, "\u00e9")));
+        IntRecordMap<String> records = loaded();
+        assertEquals(5, RecordJournal.replay(base, records, reports::add));
+        assertEquals(List.of("1=ONE\nwith a line break", "3=four", "4=three", "-9=\u00e9"), entries(records));
+        assertEquals(List.of(), reports);
+    }
+
+    @Test
+    void aTornLastCommitIsIgnoredAndReported() throws IOException {
+        RecordJournal.append(base, List.of(RecordEdit.put(4, "four")));
+        long firstCommitEnd = Files.size(RecordJournal.journalFor(base));
+        RecordJournal.append(base, List.of(RecordEdit.put(5, "five"), RecordEdit.remove(1)));
+        byte[] journal = Files.readAllBytes(RecordJournal.journalFor(base));
+        for (long length = firstCommitEnd; length < journal.length; length++) {
+            Files.write(RecordJournal.journalFor(base), Arrays.copyOf(journal, (int) length));
+            reports.clear();
+            IntRecordMap<String> records = loaded();
+            assertEquals(1, RecordJournal.replay(base, records, reports::add), "cut to " + length);
+            assertEquals(List.of("1=one", "2=two", "3=three", "4=four"), entries(records));
+            assertEquals(length > firstCommitEnd ? 1 : 0, reports.size());
+        }
+    }
+
+    @Test
+    void aDamagedCommitEndsTheReplay() throws IOException {
+        RecordJournal.append(base, List.of(RecordEdit.put(4, "four")));
+        long firstCommitEnd = Files.size(RecordJournal.journalFor(base));
+        RecordJournal.append(base, List.of(RecordEdit.put(5, "five")));
+        RecordJournal.append(base, List.of(RecordEdit.put(6, "six")));
+        byte[] journal = Files.readAllBytes(RecordJournal.journalFor(base));
+        journal[(int) firstCommitEnd + 10] ^= 1; // inside the second commit's edits
+        Files.write(RecordJournal.journalFor(base), journal);
+        IntRecordMap<String> records = loaded();
+        assertEquals(1, RecordJournal.replay(base, records, reports::add));
+        assertEquals(List.of("1=one", "2=two", "3=three", "4=four"), entries(records));
+        assertEquals(1, reports.size());
+    }
+
+    @Test
+    void aJournalForAnotherVersionOfTheBaseIsIgnored() throws IOException {
+        RecordJournal.append(base, List.of(RecordEdit.put(4, "four")));
+        Files.writeString(base, "1=one\n2=two\n3=three\n4=written again\n");
+        IntRecordMap<String> records = loaded();
+        assertEquals(0, RecordJournal.replay(base, records, reports::add));
+        assertEquals("written again", records.get(4));
+        assertEquals(1, reports.size());
+
+        RecordJournal.append(base, List.of(RecordEdit.put(5, "five"))); // starts a journal for the new base
+        records = loaded();
+        assertEquals(1, RecordJournal.replay(base, records, reports::add));
+        assertEquals("written again", records.get(4));
+        assertEquals("five", records.get(5));
+    }
+
+    @Test
+    void aBaseTouchedButNotResizedStillInvalidatesTheJournal() throws IOException {
+        RecordJournal.append(base, List.of(RecordEdit.put(4, "four")));
+        Files.setLastModifiedTime(base, FileTime.fromMillis(Files.getLastModifiedTime(base).toMillis() - 60_000));
+        assertEquals(0, RecordJournal.replay(base, loaded(), reports::add));
+    }
+
+    @Test
+    void wholeTableEditsAreRefused() {
+        assertThrows(IllegalArgumentException.class,
+                () -> RecordJournal.append(base, List.of(RecordEdit.replace(new IntRecordMap<>()))));
+    }
+
+    @Test
+    void noJournalReplaysNothing() throws IOException {
+        assertEquals(0, RecordJournal.replay(base, loaded(), reports::add));
+        assertEquals(List.of(), reports);
+    }
+
+    private IntRecordMap<String> loaded() throws IOException {
+        IntRecordMap<String> records = new IntRecordMap<>();
+        FileTableMaker.readTable(base, records);
+        return records;
+    }
+}
@@ -0,0 +1,125 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** FileTableMaker's undo/redo history of inverse edits, driven through the batch commands. */
+class RecordUndoTest {
+    private static final PrintWriter DISCARD = new PrintWriter(Writer.nullWriter());
+
+    @BeforeEach
+    @AfterEach
+    void reset() {
+        FileTableMaker.reset();
+    }
+
+    @Test
+    void undoAndRedoWalkEveryKindOfEditBackAndForth(@TempDir Path dir) throws Exception {
+        Path table = dir.resolve("table.txt");
+        Files.writeString(table, "1=one\n2=two\n3=three\n");
+        List<Map<Integer, String>> states = new ArrayList<>();
+        states.add(records());
+        run("load", table.toString());
+        states.add(records());
+        String[][] edits = {
+                {"add", "four"}, {"update", "2 TWO"}, {"delete", "1"}, {"swap", "3 4"}, {"add", "refilled"},
+                {"clear", ""}, {"add", "alone"}, {"load", table.toString()}, {"update", "3 last"},
+        };
+        for (String[] edit : edits) {
+            run(edit[0], edit[1]);
+            states.add(records());
+        }
+        assertEquals(Map.of(1, "refilled", 2, "TWO", 3, "four", 4, "three"), states.get(6));
+        for (int i = states.size() - 2; i >= 0; i--) {
+            run("undo", "");
+            assertEquals(states.get(i), records(), "after undoing back to state " + i);
+        }
+        assertThrows(IllegalStateException.class, () -> run("undo", ""));
+        for (int i = 1; i < states.size(); i++) {
+            run("redo", "");
+            assertEquals(states.get(i), records(), "after redoing to state " + i);
+        }
+        assertThrows(IllegalStateException.class, () -> run("redo", ""));
+    }
+
+    @Test
+    void aNewEditDropsTheRedoSide() throws Exception {
+        run("add", "a");
+        run("add", "b");
+        run("undo", "");
+        run("add", "c");
+        assertThrows(IllegalStateException.class, () -> run("redo", ""));
+        assertEquals(Map.of(1, "a", 2, "c"), records());
+    }
+
+    @Test
+    void randomEditsUndoToTheStartAndRedoToTheEnd() throws Exception {
+        Random random = new Random(42);
+        Map<Integer, String> expected = new HashMap<>();
+        List<Map<Integer, String>> states = new ArrayList<>();
+        states.add(Map.of());
+        for (int i = 0; i < 500; i++) {
+            List<Integer> keys = new ArrayList<>(expected.keySet());
+            int choice = keys.size() < 2 ? 0 : random.nextInt(4);
+            if (choice == 0) {
+                run("add", "value " + i);
+                expected.put(lowestFree(expected), "value " + i);
+            } else if (choice == 1) {
+                int key = keys.get(random.nextInt(keys.size()));
+                run("update", key + " updated " + i);
+                expected.put(key, "updated " + i);
+            } else if (choice == 2) {
+                int key = keys.get(random.nextInt(keys.size()));
+                run("delete", String.valueOf(key));
+                expected.remove(key);
+            } else {
+                int key = keys.get(random.nextInt(keys.size()));
+                int other = keys.get(random.nextInt(keys.size()));
+                run("swap", key + " " + other);
+                String value = expected.get(key);
+                expected.put(key, expected.get(other));
+                expected.put(other, value);
+            }
+            assertEquals(expected, records(), "after edit " + i);
+            states.add(new HashMap<>(expected));
+        }
+        for (int i = states.size() - 2; i >= 0; i--) {
+            run("undo", "");
+            assertEquals(states.get(i), records());
+        }
+        for (int i = 1; i < states.size(); i++) run("redo", "");
+        assertEquals(expected, records());
+    }
+
+    private static int lowestFree(Map<Integer, String> records) {
+        int key = 1;
+        while (records.containsKey(key)) key++;
+        return key;
+    }
+
+    private static void run(String command, String argument) throws Exception {
+        assertTrue(FileTableMaker.executeBatchCommand(command, argument, DISCARD), command);
+    }
+
+    /** The records as "view" prints them. */
+    private static Map<Integer, String> records() throws Exception {
+        StringWriter text = new StringWriter();
+        FileTableMaker.executeBatchCommand("view", "", new PrintWriter(text));
+        Map<Integer, String> records = new HashMap<>();
+        for (String line : text.toString().split("\\R")) {
+            int colon = line.indexOf(": ");
+            if (colon > 0) records.put(Integer.parseInt(line.substring(0, colon)), line.substring(colon + 2));
+        }
+        return records;
+    }
+}
@@ -0,0 +1,58 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+/** StripedRecordStore's whole-table replace: what it hands back and what readers see around it. */
+class StripedRecordStoreTest {
+
+    @Test
+    void replaceReturnsThePreviousRecordsInOrderAndKeepsTheNewOrder() {
+        StripedRecordStore store = new StripedRecordStore(4);
+        for (String value : new String[] {"a", "b", "c"}) store.add(value);
+        store.put(10, "j");
+        store.remove(2);
+        IntRecordMap<String> replacement = new IntRecordMap<>();
+        for (int key : new int[] {7, 3, 5, 1}) replacement.put(key, "v" + key);
+
+        IntRecordMap<String> previous = store.replace(replacement);
+
+        assertEquals("[1=a, 3=c, 10=j]", IntRecordMapTest.entries(previous).toString());
+        assertEquals("[7=v7, 3=v3, 5=v5, 1=v1]", IntRecordMapTest.entries(store.snapshot()).toString());
+        assertEquals(4, store.size());
+        assertNull(store.get(10));
+        assertEquals(2, store.add("new")); // the free keys start over from the new table
+    }
+
+    @Test
+    void readersSeeEitherTheWholeOldTableOrTheWholeNewOne() throws InterruptedException {
+        StripedRecordStore store = new StripedRecordStore(8);
+        IntRecordMap<String> first = new IntRecordMap<>();
+        IntRecordMap<String> second = new IntRecordMap<>();
+        for (int key = 1; key <= 20_000; key++) {
+            first.put(key, "first");
+            second.put(key, "second");
+        }
+        store.replace(first);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> mixed = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            while (!done.get()) {
+                IntRecordMap<String> seen = store.snapshot();
+                String value = seen.get(1);
+                seen.forEach((key, other) -> {
+                    if (!other.equals(value)) mixed.set("record " + key + " is " + other + ", record 1 " + value);
+                });
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 20; i++) store.replace(i % 2 == 0 ? second : first);
+        done.set(true);
+        reader.join();
+        assertNull(mixed.get());
+        assertEquals(20_000, store.size());
+    }
+}
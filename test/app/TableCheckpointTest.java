@@ -0,0 +1,117 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** FileTableMaker's checkpoints, written on their own thread while the table is edited and paged through. */
+class TableCheckpointTest {
+    private static final PrintWriter DISCARD = new PrintWriter(Writer.nullWriter());
+    @TempDir
+    Path dir;
+    private final List<String> reports = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    @AfterEach
+    void reset() {
+        FileTableMaker.reset();
+    }
+
+    @Test
+    void checkpointsTakenWhileEditingAndPagingRecoverTheLastState() throws Exception {
+        Path base = dir.resolve("table.txt");
+        StringBuilder text = new StringBuilder();
+        for (int key = 1; key <= 20_000; key++) text.append(key).append("=saved ").append(key).append('\n');
+        Files.writeString(base, text);
+        Checkpointer checkpoints = FileTableMaker.trackCheckpoints(dir.resolve("table.recovery"), reports::add);
+        run("load", base.toString());
+        Map<Integer, String> expected = new LinkedHashMap<>();
+        for (int key = 1; key <= 20_000; key++) expected.put(key, "saved " + key);
+
+        // every -Dftm.checkpoint.ops edits the checkpoint thread snapshots the records while this one goes on
+        Random random = new Random(5);
+        for (int i = 0; i < 12 * Checkpointer.OPS; i++) {
+            int key = 1 + random.nextInt(25_000);
+            if (random.nextInt(3) == 0 && expected.containsKey(key)) {
+                run("delete", String.valueOf(key));
+                expected.remove(key);
+            } else if (expected.containsKey(key)) {
+                run("update", key + " edit " + i);
+                expected.put(key, "edit " + i);
+            } else {
+                run("add", "added " + i);
+                expected.put(lowestFree(expected), "added " + i);
+            }
+            if (i % 500 == 0) {
+                int from = random.nextInt(expected.size());
+                assertEquals(window(expected, from, 20), view("range", (from + 1) + " " + (from + 20)));
+            }
+            if (i == 5 * Checkpointer.OPS) {
+                run("clear", "");
+                expected.clear();
+            }
+        }
+        checkpoints.close(true);
+        assertEquals(List.of(), reports);
+
+        Checkpointer.Recovery recovery = checkpoints.recovery(reports::add);
+        assertNotNull(recovery);
+        Map<Integer, String> recovered = new LinkedHashMap<>();
+        FileTableMaker.recoveredRecords(recovery, reports::add).forEach(recovered::put);
+        assertEquals(expected, recovered);
+    }
+
+    @Test
+    void aSaveBecomesTheBaseOfLaterCheckpoints() throws Exception {
+        Checkpointer checkpoints = FileTableMaker.trackCheckpoints(dir.resolve("table.recovery"), reports::add);
+        Path saved = dir.resolve("saved.txt");
+        run("add", "one");
+        run("add", "two");
+        run("save", saved.toString());
+        run("update", "2 TWO");
+        run("add", "three");
+        checkpoints.close(true);
+
+        Checkpointer.Recovery recovery = checkpoints.recovery(reports::add);
+        assertEquals(saved, recovery.base());
+        assertEquals(1, recovery.commits().size());
+        Map<Integer, String> recovered = new LinkedHashMap<>();
+        FileTableMaker.recoveredRecords(recovery, reports::add).forEach(recovered::put);
+        assertEquals(Map.of(1, "one", 2, "TWO", 3, "three"), recovered);
+    }
+
+    private static List<String> window(Map<Integer, String> records, int from, int count) {
+        List<String> rows = new ArrayList<>();
+        records.forEach((key, value) -> rows.add(key + ": " + value));
+        return rows.subList(from, Math.min(rows.size(), from + count));
+    }
+
+    private static List<String> view(String command, String argument) throws Exception {
+        StringWriter text = new StringWriter();
+        FileTableMaker.executeBatchCommand(command, argument, new PrintWriter(text));
+        List<String> rows = new ArrayList<>();
+        for (String line : text.toString().split("\\R")) {
+            if (line.matches("-?\\d+: .*")) rows.add(line);
+        }
+        return rows;
+    }
+
+    private static int lowestFree(Map<Integer, String> records) {
+        int key = 1;
+        while (records.containsKey(key)) key++;
+        return key;
+    }
+
+    private static void run(String command, String argument) throws Exception {
+        assertTrue(FileTableMaker.executeBatchCommand(command, argument, DISCARD), command);
+    }
+}
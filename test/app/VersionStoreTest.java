@@ -0,0 +1,74 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Versions stored as chunk manifests: round trips, shared chunks and names that never collide. */
+class VersionStoreTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void aVersionRestoresExactlyAndSharesUnchangedChunks() throws IOException {
+        VersionStore store = new VersionStore(dir);
+        StringBuilder text = new StringBuilder();
+        for (int key = 1; key <= 50_000; key++) text.append(key).append("=value ").append(key).append('\n');
+        Path file = Files.writeString(dir.resolve("table.txt"), text);
+        VersionStore.Stored first = store.store(file, VersionStore.newManifestPath(dir, "table.txt_", ".bak"));
+        assertEquals(first.chunks(), first.newChunks());
+
+        Files.writeString(file, "0=a new first line\n" + text);
+        VersionStore.Stored second = store.store(file, VersionStore.newManifestPath(dir, "table.txt_", ".bak"));
+        assertNotEquals(first.manifest(), second.manifest());
+        assertTrue(second.newChunks() <= 2, second.describe());
+
+        Path restored = dir.resolve("restored.txt");
+        store.restore(first.manifest(), restored);
+        assertEquals(text.toString(), Files.readString(restored));
+        store.restore(second.manifest(), restored);
+        assertEquals(Files.readString(file), Files.readString(restored));
+        assertEquals(Files.size(file), VersionStore.size(second.manifest()));
+    }
+
+    @Test
+    void versionsSavedInTheSameSecondGetTheirOwnNames() throws IOException {
+        VersionStore store = new VersionStore(dir);
+        Path file = Files.writeString(dir.resolve("list.txt"), "item\n");
+        Set<Path> manifests = new HashSet<>();
+        for (int i = 0; i < 20; i++) {
+            Files.writeString(file, "item " + i + "\n");
+            Path manifest = store.store(file, VersionStore.newManifestPath(dir, "list_v", ".txt")).manifest();
+            assertTrue(manifests.add(manifest), manifest + " was used twice");
+            assertTrue(manifest.getFileName().toString().matches("list_v\\d{8}_\\d{6}_\\d{3}\\.txt\\.manifest"));
+        }
+        int i = 0;
+        for (Path manifest : manifests.stream().sorted().toList()) {
+            Path restored = dir.resolve("restored.txt");
+            store.restore(manifest, restored);
+            assertEquals("item " + i++ + "\n", Files.readString(restored)); // names sort in the order saved
+        }
+    }
+
+    @Test
+    void anExistingManifestIsNeverReplaced() throws IOException {
+        VersionStore store = new VersionStore(dir);
+        Path file = Files.writeString(dir.resolve("table.txt"), "1=first\n");
+        Path manifest = store.store(file, VersionStore.newManifestPath(dir, "table.txt_", ".bak")).manifest();
+        Files.writeString(file, "1=second\n");
+        assertThrows(FileAlreadyExistsException.class, () -> store.store(file, manifest));
+        Path restored = dir.resolve("restored.txt");
+        store.restore(manifest, restored);
+        assertEquals("1=first\n", Files.readString(restored));
+        try (var listing = Files.list(dir)) {
+            assertTrue(listing.noneMatch(path -> path.toString().endsWith(".tmp")));
+        }
+    }
+}